@@ -0,0 +1,83 @@
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 追加日志并发写入检查
+ * 多个线程同时用append(经提交线程组提交)和appendFrom(调用线程直接写入)追加记录，
+ * 结束后按返回的指针逐条读回，内容必须与写入的一致，区间不能互相覆盖。
+ *
+ * 用法: java -cp target/classes:. AppendLogTest
+ */
+public class AppendLogTest {
+    private static final int THREADS = 8;
+    private static final int RECORDS_PER_THREAD = 2000;
+    private static final int RECORD_SIZE = StudentRecord.SIZE;
+
+    public static void main(String[] args) throws Exception {
+        File file = File.createTempFile("append-log-test", ".dat");
+        file.deleteOnExit();
+        long[][] pointers = new long[THREADS][RECORDS_PER_THREAD];
+
+        try (AppendLog log = new AppendLog(file, AppendLog.FsyncPolicy.NONE, 0)) {
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                threads.add(Thread.ofPlatform().start(() -> {
+                    try {
+                        for (int i = 0; i < RECORDS_PER_THREAD; i++) {
+                            byte[] record = record(thread, i);
+                            // 偶数线程用append，奇数线程用appendFrom，两种写入交错分配位置
+                            pointers[thread][i] = thread % 2 == 0
+                                ? log.append(record)
+                                : log.appendFrom(Channels.newChannel(new ByteArrayInputStream(record)), RECORD_SIZE);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+
+        int corrupted = 0;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+            for (int t = 0; t < THREADS; t++) {
+                for (int i = 0; i < RECORDS_PER_THREAD; i++) {
+                    buffer.clear();
+                    channel.read(buffer, pointers[t][i]);
+                    if (!ByteBuffer.wrap(record(t, i)).equals(buffer.flip())) {
+                        corrupted++;
+                    }
+                }
+            }
+        }
+
+        int total = THREADS * RECORDS_PER_THREAD;
+        System.out.println("读回 " + total + " 条记录，内容不符 " + corrupted + " 条");
+        if (corrupted > 0) {
+            System.out.println("测试失败");
+            System.exit(1);
+        }
+        System.out.println("测试通过");
+    }
+
+    /**
+     * 每条记录由线程号和序号决定，写满整条记录
+     */
+    private static byte[] record(int thread, int index) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        while (record.hasRemaining()) {
+            record.putInt(thread * RECORDS_PER_THREAD + index);
+        }
+        return record.array();
+    }
+}
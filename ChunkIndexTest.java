@@ -0,0 +1,87 @@
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+
+/**
+ * 块索引旧格式转换检查
+ * 分别构造CSV格式和版本2的二进制索引(末尾带一个写到一半的条目)，用ChunkIndex打开后
+ * 检查条目内容、缺少字段记为未知、旧文件备份，以及转换后再次打开不会重复转换。
+ *
+ * 用法: java -cp target/classes:. ChunkIndexTest
+ */
+public class ChunkIndexTest {
+    private static final int V2_ENTRY_SIZE = 36;
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("chunk-index-test").toFile();
+
+        // CSV格式: 每行 "块ID,指针,大小"，空行忽略
+        File csv = new File(dir, "csv.idx");
+        Files.writeString(csv.toPath(), "0,0,1048560\n1,1048560,1048560\n\n2,2097120,100\n");
+        try (ChunkIndex index = new ChunkIndex(csv)) {
+            check(index.size() == 3, "CSV转换后条目数为3，实际 " + index.size());
+            StorageNode.IndexEntry entry = index.get(2);
+            check(entry.chunkId == 2 && entry.pointer == 2097120 && entry.size == 100, "CSV条目内容");
+            check(entry.recordCount == ZoneMap.UNKNOWN.recordCount, "CSV条目的学号区间为未知");
+            check((entry.flags & ChunkIndex.FLAG_CHECKSUM) == 0, "CSV条目没有块校验和");
+        }
+        check(new File(dir, "csv.idx.csv.bak").exists(), "CSV原文件备份为 .csv.bak");
+        check(ChunkIndex.readVersion(csv) == ChunkIndex.VERSION, "CSV转换后为当前版本");
+
+        // 版本2: 有学号区间、没有块校验和；最后一个条目的CRC不符，应被丢弃
+        File v2 = new File(dir, "v2.idx");
+        ByteBuffer data = ByteBuffer.allocate(ChunkIndex.HEADER_SIZE + 3 * V2_ENTRY_SIZE);
+        data.putInt(ChunkIndex.MAGIC).putInt(2).putInt(V2_ENTRY_SIZE).putInt(0);
+        putV2Entry(data, 7, 0, 1048560, ChunkIndex.FLAG_SORTED, 100, 52527, 52428, true);
+        putV2Entry(data, 8, 1048560, 2000, ChunkIndex.FLAG_SORTED | ChunkIndex.FLAG_CHECKSUM, 52528, 52627, 100, true);
+        putV2Entry(data, 9, 1050560, 2000, 0, 0, 0, 0, false);
+        Files.write(v2.toPath(), data.array());
+        try (ChunkIndex index = new ChunkIndex(v2)) {
+            check(index.size() == 2, "版本2转换后条目数为2(丢弃写到一半的条目)，实际 " + index.size());
+            StorageNode.IndexEntry entry = index.get(1);
+            check(entry.chunkId == 8 && entry.pointer == 1048560 && entry.size == 2000, "版本2条目内容");
+            check(entry.minStudentId == 52528 && entry.maxStudentId == 52627 && entry.recordCount == 100,
+                  "版本2条目保留学号区间");
+            check((entry.flags & ChunkIndex.FLAG_SORTED) != 0, "版本2条目保留有序标志");
+            check((entry.flags & ChunkIndex.FLAG_CHECKSUM) == 0, "版本2条目的块校验和记为无效");
+        }
+        check(new File(dir, "v2.idx.v2.bak").exists(), "版本2原文件备份为 .v2.bak");
+
+        // 已是当前版本的文件再次打开时不转换
+        long modified = v2.lastModified();
+        try (ChunkIndex index = new ChunkIndex(v2)) {
+            check(index.size() == 2, "再次打开条目数不变");
+        }
+        check(!new File(dir, "v2.idx.v3.bak").exists() && v2.lastModified() >= modified, "当前版本不再转换");
+
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+
+        if (failures > 0) {
+            System.out.println("测试失败: " + failures + " 项");
+            System.exit(1);
+        }
+        System.out.println("测试通过");
+    }
+
+    private static void putV2Entry(ByteBuffer data, int chunkId, long pointer, int size, int flags,
+                                   int minStudentId, int maxStudentId, int recordCount, boolean valid) {
+        int start = data.position();
+        data.putInt(chunkId).putLong(pointer).putInt(size).putInt(flags)
+            .putInt(minStudentId).putInt(maxStudentId).putInt(recordCount);
+        CRC32 crc = new CRC32();
+        crc.update(data.array(), start, V2_ENTRY_SIZE - 4);
+        data.putInt(valid ? (int) crc.getValue() : (int) crc.getValue() + 1);
+    }
+
+    private static void check(boolean condition, String what) {
+        System.out.println((condition ? "通过: " : "失败: ") + what);
+        if (!condition) {
+            failures++;
+        }
+    }
+}
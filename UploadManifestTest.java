@@ -0,0 +1,91 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+
+/**
+ * 分发清单续传检查
+ * 写入计划和确认后模拟中断(最后一行不完整)，重新打开检查恢复的进度；
+ * 源文件变化后清单作废；全部确认后删除清单。
+ *
+ * 用法: java -cp target/classes:. UploadManifestTest
+ */
+public class UploadManifestTest {
+    private static final int CHUNK_SIZE = ChunkSource.DEFAULT_CHUNK_SIZE;
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("upload-manifest-test").toFile();
+        File source = new File(dir, "data.dat");
+        Files.write(source.toPath(), new byte[3 * StudentRecord.SIZE]);
+        File file = new File(dir, "data.dat.manifest");
+
+        try (UploadManifest manifest = UploadManifest.open(file, source, CHUNK_SIZE)) {
+            manifest.plan(0, 0, 20, 0xCAFEBABE, 1, 2);
+            manifest.plan(1, 20, 20, 0x12345678, 2, 3);
+            manifest.plan(2, 40, 20, 0x0BADF00D, 3, 3);
+            manifest.ack(0, 1);
+            manifest.ack(0, 2);
+            manifest.ack(1, 3);
+            manifest.ack(2, 3);
+            manifest.ack(7, 1); // 没有计划的块，忽略
+        }
+        // 进程在写一行时中断
+        try (FileWriter writer = new FileWriter(file, true)) {
+            writer.write("A,1,");
+        }
+
+        try (UploadManifest manifest = UploadManifest.open(file, source, CHUNK_SIZE)) {
+            UploadManifest.Entry first = manifest.get(0);
+            check(first != null && first.isComplete(), "块0主备都已确认");
+            check(first.checksum == 0xCAFEBABE && first.offset == 0 && first.length == 20, "块0的计划(校验和按无符号十六进制)");
+            UploadManifest.Entry second = manifest.get(1);
+            check(!second.isComplete() && second.isAcked(3) && !second.isAcked(2), "块1只确认了备份节点");
+            check(manifest.get(2).isComplete(), "块2主备为同一节点，一次确认即完成");
+            check(manifest.get(7) == null, "没有计划的块不出现");
+            check(manifest.completedCount() == 2, "已完成2块，实际 " + manifest.completedCount());
+
+            // 不完整的行之后继续追加
+            manifest.ack(1, 2);
+        }
+        try (UploadManifest manifest = UploadManifest.open(file, source, CHUNK_SIZE)) {
+            check(manifest.completedCount() == 3, "补发后3块都已完成");
+            manifest.delete();
+        }
+        check(!file.exists(), "全部确认后删除清单");
+
+        try (UploadManifest manifest = UploadManifest.open(file, source, CHUNK_SIZE)) {
+            manifest.plan(0, 0, 20, 1, 1, 2);
+            manifest.ack(0, 1);
+            manifest.ack(0, 2);
+        }
+        // 块大小或源文件变化后清单作废
+        try (UploadManifest manifest = UploadManifest.open(file, source, CHUNK_SIZE / 2)) {
+            check(manifest.get(0) == null, "块大小变化后从头分发");
+        }
+        try (UploadManifest manifest = UploadManifest.open(file, source, CHUNK_SIZE / 2)) {
+            manifest.plan(0, 0, 20, 1, 1, 2);
+        }
+        Files.write(source.toPath(), new byte[4 * StudentRecord.SIZE]);
+        try (UploadManifest manifest = UploadManifest.open(file, source, CHUNK_SIZE / 2)) {
+            check(manifest.get(0) == null, "源文件变化后从头分发");
+        }
+
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+
+        if (failures > 0) {
+            System.out.println("测试失败: " + failures + " 项");
+            System.exit(1);
+        }
+        System.out.println("测试通过");
+    }
+
+    private static void check(boolean condition, String what) {
+        System.out.println((condition ? "通过: " : "失败: ") + what);
+        if (!condition) {
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,367 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基于FileChannel的追加日志
+ * 并发的追加请求进入队列，由提交线程合并为一次组提交(group commit)写入文件，
+ * 并按配置的fsync策略落盘。调用方在自己的数据写入(及按策略落盘)后返回其文件指针。
+ */
+public class AppendLog implements Closeable {
+
+    /**
+     * fsync策略
+     */
+    public enum FsyncPolicy {
+        NONE,        // 只写入页缓存，不主动fsync
+        INTERVAL,    // 距上次fsync超过间隔时才fsync
+        EVERY_BATCH; // 每个批次提交后都fsync
+
+        public static FsyncPolicy parse(String value) {
+            if (value == null || value.isEmpty()) {
+                return NONE;
+            }
+            return valueOf(value.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    // 单次组提交的最大字节数，避免一个批次无限增长
+    private static final long MAX_BATCH_BYTES = 64L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalMillis;
+    private final Thread committer;
+
+    // 以下字段由this锁保护
+    private final ArrayDeque<PendingAppend> queue = new ArrayDeque<>();
+    private long nextPosition;       // 下一个追加请求分配到的位置
+    private long committedPosition;  // 已提交(可见)的位置
+    private IOException failure;     // 提交失败后日志不可再用
+    private boolean closed = false;
+    private boolean externalDirty;   // appendFrom写入了尚未fsync的数据
+
+    // 统计信息，由this锁保护
+    private long batchCount;
+    private long appendCount;
+    private long bytesCommitted;
+    private long syncCount;
+    private int maxBatchSize;
+    private long totalLatencyNanos;
+    private long maxLatencyNanos;
+
+    private long lastSyncMillis;
+    private boolean dirty = false;   // 仅由提交线程访问
+
+    private static class PendingAppend {
+        final ByteBuffer data;
+        final long position;
+        final long enqueueNanos;
+
+        PendingAppend(ByteBuffer data, long position) {
+            this.data = data;
+            this.position = position;
+            this.enqueueNanos = System.nanoTime();
+        }
+    }
+
+    public AppendLog(File file, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis) throws IOException {
+        if (fsyncIntervalMillis < 0) {
+            throw new IllegalArgumentException("无效的fsync间隔: " + fsyncIntervalMillis);
+        }
+        this.channel = FileChannel.open(file.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+        this.nextPosition = channel.size();
+        this.committedPosition = nextPosition;
+        this.lastSyncMillis = System.currentTimeMillis();
+
+        this.committer = new Thread(this::commitLoop, "AppendLog-" + file.getName());
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    /**
+     * 追加数据，阻塞直到所在批次提交完成
+     * @return 数据在文件中的起始指针
+     */
+    public long append(byte[] data) throws IOException {
+        return append(ByteBuffer.wrap(data));
+    }
+
+    public long append(ByteBuffer data) throws IOException {
+        PendingAppend pending;
+        synchronized (this) {
+            checkUsable();
+            pending = new PendingAppend(data.slice(), nextPosition);
+            nextPosition += data.remaining();
+            queue.add(pending);
+            notifyAll();
+        }
+        awaitCommitted(pending.position + pending.data.remaining());
+        return pending.position;
+    }
+
+    /**
+     * 把通道中的count字节直接写入日志(如socket → 文件的transferFrom)，数据不经过堆内存
+     * 位置在锁内分配，写入在调用线程中进行，不经过提交线程；写入后按fsync策略落盘。
+     * 写入失败时已分配的区间作废(留空洞)，不影响之后的追加。
+     * @return 数据在文件中的起始指针
+     */
+    public long appendFrom(ReadableByteChannel source, long count) throws IOException {
+        long position;
+        synchronized (this) {
+            checkUsable();
+            position = nextPosition;
+            nextPosition += count;
+        }
+        long start = System.nanoTime();
+
+        if (count > 0) {
+            // transferFrom不会写到文件末尾之后，先把文件扩展到区间末尾
+            channel.write(ByteBuffer.allocate(1), position + count - 1);
+        }
+        long written = 0;
+        while (written < count) {
+            long transferred = channel.transferFrom(source, position + written, count - written);
+            if (transferred <= 0) {
+                throw new EOFException("数据源提前结束，已写入 " + written + "/" + count + " 字节");
+            }
+            written += transferred;
+        }
+
+        if (fsyncPolicy == FsyncPolicy.EVERY_BATCH) {
+            channel.force(false);
+        }
+        long latency = System.nanoTime() - start;
+        synchronized (this) {
+            appendCount++;
+            batchCount++;
+            bytesCommitted += count;
+            totalLatencyNanos += latency;
+            maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+            if (fsyncPolicy == FsyncPolicy.EVERY_BATCH) {
+                syncCount++;
+            } else if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+                // 交给提交线程按间隔落盘
+                externalDirty = true;
+                notifyAll();
+            }
+        }
+        return position;
+    }
+
+    /**
+     * 等待指定位置之前的数据全部提交
+     */
+    private synchronized void awaitCommitted(long position) throws IOException {
+        boolean interrupted = false;
+        while (committedPosition < position && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (committedPosition < position) {
+            throw new IOException("追加日志提交失败", failure);
+        }
+    }
+
+    private void checkUsable() throws IOException {
+        if (failure != null) {
+            throw new IOException("追加日志已失效", failure);
+        }
+        if (closed) {
+            throw new IOException("追加日志已关闭");
+        }
+    }
+
+    /**
+     * 提交线程：取出队列中所有待写数据，合并写入并按策略fsync
+     */
+    private void commitLoop() {
+        List<PendingAppend> batch = new ArrayList<>();
+        while (true) {
+            synchronized (this) {
+                while (queue.isEmpty() && !closed) {
+                    try {
+                        if ((dirty || externalDirty) && fsyncPolicy == FsyncPolicy.INTERVAL) {
+                            // 有未落盘的数据时等到间隔结束补做fsync，间隔已过(包括间隔为0)时立即去同步
+                            long remaining = lastSyncMillis + fsyncIntervalMillis - System.currentTimeMillis();
+                            if (remaining > 0) {
+                                wait(remaining);
+                            }
+                            break;
+                        }
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (queue.isEmpty() && closed) {
+                    break;
+                }
+                long batchBytes = 0;
+                while (!queue.isEmpty() && (batch.isEmpty() || batchBytes < MAX_BATCH_BYTES)) {
+                    PendingAppend next = queue.poll();
+                    batchBytes += next.data.remaining();
+                    batch.add(next);
+                }
+                if (externalDirty) {
+                    dirty = true;
+                    externalDirty = false;
+                }
+            }
+
+            try {
+                if (!batch.isEmpty()) {
+                    writeBatch(batch);
+                }
+                syncIfNeeded(false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                System.err.println("追加日志写入失败: " + e.getMessage());
+                return;
+            }
+
+            if (!batch.isEmpty()) {
+                finishBatch(batch);
+                batch.clear();
+            }
+        }
+
+        try {
+            synchronized (this) {
+                dirty |= externalDirty;
+            }
+            syncIfNeeded(true);
+        } catch (IOException e) {
+            System.err.println("关闭追加日志时fsync失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 按位置连续的区段gather写入批次
+     * 两次append之间可能有appendFrom分配的区间(由调用线程直接写入)，批次内的位置不一定连续，
+     * 每个区段在自己的起始位置写入，不覆盖appendFrom的数据
+     */
+    private void writeBatch(List<PendingAppend> batch) throws IOException {
+        int runStart = 0;
+        while (runStart < batch.size()) {
+            int runEnd = runStart + 1;
+            long end = batch.get(runStart).position + batch.get(runStart).data.remaining();
+            while (runEnd < batch.size() && batch.get(runEnd).position == end) {
+                end += batch.get(runEnd).data.remaining();
+                runEnd++;
+            }
+
+            ByteBuffer[] buffers = new ByteBuffer[runEnd - runStart];
+            long remaining = 0;
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = batch.get(runStart + i).data.duplicate();
+                remaining += buffers[i].remaining();
+            }
+            channel.position(batch.get(runStart).position);
+            while (remaining > 0) {
+                remaining -= channel.write(buffers);
+            }
+            runStart = runEnd;
+        }
+        dirty = true;
+    }
+
+    private void syncIfNeeded(boolean force) throws IOException {
+        if (!dirty) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        boolean sync = force
+            || fsyncPolicy == FsyncPolicy.EVERY_BATCH
+            || (fsyncPolicy == FsyncPolicy.INTERVAL && now - lastSyncMillis >= fsyncIntervalMillis);
+        if (sync) {
+            channel.force(false);
+            lastSyncMillis = now;
+            dirty = false;
+            synchronized (this) {
+                syncCount++;
+            }
+        }
+    }
+
+    private void finishBatch(List<PendingAppend> batch) {
+        long now = System.nanoTime();
+        synchronized (this) {
+            for (PendingAppend pending : batch) {
+                long latency = now - pending.enqueueNanos;
+                totalLatencyNanos += latency;
+                maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+                bytesCommitted += pending.data.remaining();
+            }
+            PendingAppend last = batch.get(batch.size() - 1);
+            committedPosition = last.position + last.data.remaining();
+            appendCount += batch.size();
+            batchCount++;
+            maxBatchSize = Math.max(maxBatchSize, batch.size());
+            notifyAll();
+        }
+    }
+
+    /**
+     * 当前日志的逻辑大小(包含已分配但尚未提交的部分)
+     */
+    public synchronized long size() {
+        return nextPosition;
+    }
+
+    public FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    /**
+     * 提交统计：批次数、平均/最大批大小、平均/最大提交延迟
+     */
+    public synchronized String getStats() {
+        double avgBatch = batchCount == 0 ? 0 : (double) appendCount / batchCount;
+        double avgLatencyMs = appendCount == 0 ? 0 : totalLatencyNanos / 1e6 / appendCount;
+        return String.format("策略: %s, 批次: %d, 追加: %d, 平均批大小: %.2f, 最大批大小: %d, " +
+                             "平均提交延迟: %.3fms, 最大提交延迟: %.3fms, fsync次数: %d, 写入: %d 字节",
+            fsyncPolicy, batchCount, appendCount, avgBatch, maxBatchSize,
+            avgLatencyMs, maxLatencyNanos / 1e6, syncCount, bytesCommitted);
+    }
+
+    /**
+     * 关闭日志：等待队列中的数据提交并落盘
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+}
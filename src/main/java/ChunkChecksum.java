@@ -0,0 +1,57 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32C;
+
+/**
+ * 数据块的端到端校验和(CRC32C)
+ * 客户端在发送前对块的存储形式(压缩后的字节)计算，随分片头/帧头传给节点；节点接收后先校验再存储，
+ * 校验和写入索引，查询读取数据块时再次校验。链式复制转发的是节点存储时校验过的原值，不重新计算。
+ * JDK用CPU的CRC32C指令计算，1MB的块只需几十微秒。
+ */
+public final class ChunkChecksum {
+
+    /**
+     * 校验和不符：数据在传输或存储中损坏
+     */
+    public static class MismatchException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public MismatchException(String message) {
+            super(message);
+        }
+    }
+
+    private ChunkChecksum() {
+    }
+
+    /**
+     * 计算position到limit的校验和，不改变data的position
+     */
+    public static int of(ByteBuffer data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data.duplicate());
+        return (int) crc.getValue();
+    }
+
+    public static int of(byte[] data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    public static int of(FileChannel source, long position, int length) throws IOException {
+        return of(source.map(FileChannel.MapMode.READ_ONLY, position, length));
+    }
+
+    /**
+     * @throws MismatchException 校验和不符
+     */
+    public static void verify(ByteBuffer data, int expected, String what) throws MismatchException {
+        int actual = of(data);
+        if (actual != expected) {
+            throw new MismatchException(what + " 校验和不符: 期望 " + Integer.toHexString(expected) +
+                                        "，实际 " + Integer.toHexString(actual));
+        }
+    }
+}
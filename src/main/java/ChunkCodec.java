@@ -0,0 +1,333 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 数据块压缩编码
+ * 编码号随数据块一起出现在传输头和索引标志中，节点直接存储压缩后的块，查询时再解压。
+ * 除NONE外编码后的格式为 [原始长度(4字节)][压缩数据]。
+ *
+ * 压缩前先按20字节记录做字节平面重排(所有记录的第0字节、第1字节……依次排列)：
+ * 学号的高位字节和成绩浮点数的指数、尾数低位在相邻记录间几乎不变，重排后形成长的重复段，
+ * 两种压缩算法的压缩率都明显提高。不足一条记录的尾部不重排。
+ */
+public enum ChunkCodec {
+    NONE(0),
+    DEFLATE(1),  // java.util.zip，压缩率高
+    LZ(2);       // 纯Java实现的LZ77变体(LZ4块格式)，压缩和解压都更快
+
+    public final int id;
+
+    ChunkCodec(int id) {
+        this.id = id;
+    }
+
+    public static ChunkCodec parse(String value) {
+        if (value == null || value.isEmpty()) {
+            return NONE;
+        }
+        return valueOf(value.trim().toUpperCase());
+    }
+
+    /**
+     * @return 编码号对应的编码，未知编码号返回null
+     */
+    public static ChunkCodec fromId(int id) {
+        for (ChunkCodec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 在样本块上比较各编码，选出发送一块总耗时(压缩时间 + 压缩后数据按链路速率发送的时间)最短的编码
+     * 解压发生在节点的查询路径上，不计入
+     * @param bytesPerSecond 链路速率(字节/秒)
+     */
+    public static ChunkCodec choose(ByteBuffer sample, double bytesPerSecond) {
+        ChunkCodec best = NONE;
+        double bestCost = Double.MAX_VALUE;
+        for (ChunkCodec codec : values()) {
+            // 取多次中最快的一次，排除首次运行的JIT编译开销
+            long bestNanos = Long.MAX_VALUE;
+            int size = 0;
+            for (int run = 0; run < 3; run++) {
+                long start = System.nanoTime();
+                size = codec.encode(sample).length;
+                bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+            }
+            double cost = bestNanos / 1e9 + size / bytesPerSecond;
+            if (cost < bestCost) {
+                best = codec;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 编码数据块(position到limit)，不改变raw的position
+     */
+    public byte[] encode(ByteBuffer raw) {
+        byte[] data = new byte[raw.remaining()];
+        raw.get(raw.position(), data);
+        if (this == NONE) {
+            return data;
+        }
+        byte[] shuffled = shuffle(data);
+        byte[] compressed = this == DEFLATE ? deflate(shuffled) : Lz.compress(shuffled);
+        ByteBuffer out = ByteBuffer.allocate(4 + compressed.length);
+        out.putInt(data.length);
+        out.put(compressed);
+        return out.array();
+    }
+
+    /**
+     * 解码数据块(position到limit)，不改变encoded的position
+     * @throws IOException 数据损坏
+     */
+    public byte[] decode(ByteBuffer encoded) throws IOException {
+        if (this == NONE) {
+            byte[] data = new byte[encoded.remaining()];
+            encoded.get(encoded.position(), data);
+            return data;
+        }
+        if (encoded.remaining() < 4) {
+            throw new IOException("压缩数据块不完整");
+        }
+        int rawLength = encoded.getInt(encoded.position());
+        if (rawLength < 0 || rawLength > MappedDataFile.MAX_CHUNK_SIZE) {
+            throw new IOException("压缩数据块原始长度无效: " + rawLength);
+        }
+        byte[] compressed = new byte[encoded.remaining() - 4];
+        encoded.get(encoded.position() + 4, compressed);
+        byte[] shuffled = this == DEFLATE ? inflate(compressed, rawLength) : Lz.decompress(compressed, rawLength);
+        return unshuffle(shuffled);
+    }
+
+    /**
+     * 按记录做字节平面重排
+     */
+    static byte[] shuffle(byte[] data) {
+        int records = data.length / StudentRecord.SIZE;
+        byte[] out = new byte[data.length];
+        for (int r = 0; r < records; r++) {
+            int base = r * StudentRecord.SIZE;
+            for (int b = 0; b < StudentRecord.SIZE; b++) {
+                out[b * records + r] = data[base + b];
+            }
+        }
+        int tail = records * StudentRecord.SIZE;
+        System.arraycopy(data, tail, out, tail, data.length - tail);
+        return out;
+    }
+
+    static byte[] unshuffle(byte[] data) {
+        int records = data.length / StudentRecord.SIZE;
+        byte[] out = new byte[data.length];
+        for (int b = 0; b < StudentRecord.SIZE; b++) {
+            int plane = b * records;
+            for (int r = 0; r < records; r++) {
+                out[r * StudentRecord.SIZE + b] = data[plane + r];
+            }
+        }
+        int tail = records * StudentRecord.SIZE;
+        System.arraycopy(data, tail, out, tail, data.length - tail);
+        return out;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] buffer = new byte[data.length + data.length / 1000 + 64];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] compressed, int rawLength) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] out = new byte[rawLength];
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(out, length, rawLength - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != rawLength) {
+                throw new IOException("解压后长度不符: " + length + "，期望 " + rawLength);
+            }
+            return out;
+        } catch (DataFormatException e) {
+            throw new IOException("解压数据块失败: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * LZ4块格式的压缩和解压
+     * 序列: [标记(高4位字面量长度，低4位匹配长度-4)][字面量长度扩展][字面量][偏移(2字节，小端)][匹配长度扩展]
+     * 长度为15时后跟扩展字节，每个255继续累加；最后一个序列只有字面量。
+     */
+    static final class Lz {
+        private static final int MIN_MATCH = 4;
+        private static final int HASH_BITS = 16;
+        private static final int MAX_OFFSET = 65535;
+        private static final int LAST_LITERALS = 5;  // 末尾保留为字面量的字节数
+
+        private Lz() {
+        }
+
+        static byte[] compress(byte[] src) {
+            byte[] dst = new byte[src.length + src.length / 255 + 16];
+            int[] table = new int[1 << HASH_BITS];
+            Arrays.fill(table, -1);
+            int anchor = 0;  // 尚未输出的字面量起点
+            int pos = 0;
+            int out = 0;
+            int limit = src.length - LAST_LITERALS - MIN_MATCH;
+
+            while (pos <= limit) {
+                int sequence = readInt(src, pos);
+                int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+                int candidate = table[hash];
+                table[hash] = pos;
+                if (candidate < 0 || pos - candidate > MAX_OFFSET || readInt(src, candidate) != sequence) {
+                    pos++;
+                    continue;
+                }
+
+                // 向后扩展匹配
+                int matchLength = MIN_MATCH;
+                int maxLength = src.length - LAST_LITERALS - pos;
+                while (matchLength < maxLength && src[candidate + matchLength] == src[pos + matchLength]) {
+                    matchLength++;
+                }
+
+                out = writeSequence(dst, out, src, anchor, pos - anchor, pos - candidate, matchLength);
+                pos += matchLength;
+                anchor = pos;
+            }
+
+            out = writeLastLiterals(dst, out, src, anchor, src.length - anchor);
+            return Arrays.copyOf(dst, out);
+        }
+
+        static byte[] decompress(byte[] src, int rawLength) throws IOException {
+            byte[] dst = new byte[rawLength];
+            int in = 0;
+            int out = 0;
+            try {
+                while (in < src.length) {
+                    int token = src[in++] & 0xFF;
+
+                    int literalLength = token >>> 4;
+                    if (literalLength == 15) {
+                        int extra;
+                        do {
+                            extra = src[in++] & 0xFF;
+                            literalLength += extra;
+                        } while (extra == 255);
+                    }
+                    System.arraycopy(src, in, dst, out, literalLength);
+                    in += literalLength;
+                    out += literalLength;
+                    if (in == src.length) {
+                        break; // 最后一个序列
+                    }
+
+                    int offset = (src[in] & 0xFF) | (src[in + 1] & 0xFF) << 8;
+                    in += 2;
+                    int matchLength = (token & 0x0F) + MIN_MATCH;
+                    if ((token & 0x0F) == 15) {
+                        int extra;
+                        do {
+                            extra = src[in++] & 0xFF;
+                            matchLength += extra;
+                        } while (extra == 255);
+                    }
+                    int from = out - offset;
+                    if (offset == 0 || from < 0) {
+                        throw new IOException("LZ数据损坏: 偏移无效");
+                    }
+                    if (offset >= matchLength) {
+                        System.arraycopy(dst, from, dst, out, matchLength);
+                    } else {
+                        for (int i = 0; i < matchLength; i++) {
+                            dst[out + i] = dst[from + i]; // 重叠复制，逐字节
+                        }
+                    }
+                    out += matchLength;
+                }
+            } catch (IndexOutOfBoundsException e) {
+                throw new IOException("LZ数据损坏: 长度越界");
+            }
+            if (out != rawLength) {
+                throw new IOException("解压后长度不符: " + out + "，期望 " + rawLength);
+            }
+            return dst;
+        }
+
+        private static int writeSequence(byte[] dst, int out, byte[] src, int literalStart, int literalLength,
+                                         int offset, int matchLength) {
+            int tokenPos = out++;
+            int matchCode = matchLength - MIN_MATCH;
+            int token = Math.min(literalLength, 15) << 4 | Math.min(matchCode, 15);
+            if (literalLength >= 15) {
+                out = writeLength(dst, out, literalLength - 15);
+            }
+            System.arraycopy(src, literalStart, dst, out, literalLength);
+            out += literalLength;
+            dst[out++] = (byte) offset;
+            dst[out++] = (byte) (offset >>> 8);
+            if (matchCode >= 15) {
+                out = writeLength(dst, out, matchCode - 15);
+            }
+            dst[tokenPos] = (byte) token;
+            return out;
+        }
+
+        private static int writeLastLiterals(byte[] dst, int out, byte[] src, int literalStart, int literalLength) {
+            dst[out++] = (byte) (Math.min(literalLength, 15) << 4);
+            if (literalLength >= 15) {
+                out = writeLength(dst, out, literalLength - 15);
+            }
+            System.arraycopy(src, literalStart, dst, out, literalLength);
+            return out + literalLength;
+        }
+
+        private static int writeLength(byte[] dst, int out, int length) {
+            while (length >= 255) {
+                dst[out++] = (byte) 255;
+                length -= 255;
+            }
+            dst[out++] = (byte) length;
+            return out;
+        }
+
+        private static int readInt(byte[] data, int pos) {
+            return (data[pos] & 0xFF) << 24 | (data[pos + 1] & 0xFF) << 16
+                 | (data[pos + 2] & 0xFF) << 8 | (data[pos + 3] & 0xFF);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+import java.util.Arrays;
+
+/**
+ * 常驻内存的块目录: 块ID → (指针, 大小, 标志, 学号区间, 校验和)
+ * 启动时从索引构建一次，之后随storeChunk更新，查询不再读取.idx文件。
+ * 每个文件的块ID都从0开始，同一块ID可能有多份(不同文件的块)，按存储顺序串成链。
+ *
+ * 单写多读：写入方加锁后把新条目追加到并行的基本类型数组末尾，再发布一个新的快照；
+ * 快照只包含发布时已有的条目，读取方拿到快照后可以无锁遍历，不受之后写入的影响。
+ */
+public class ChunkDirectory {
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * 目录快照
+     * 数组在快照之间共享，但快照只读取自己count以内的槽位，这些槽位发布后不会再被修改。
+     */
+    public static final class Snapshot {
+        private final int[] chunkIds;
+        private final long[] pointers;
+        private final int[] sizes;
+        private final int[] flags;
+        private final int[] minStudentIds;
+        private final int[] maxStudentIds;
+        private final int[] recordCounts;
+        private final int[] checksums;
+        private final int[] nextSameIds;
+        // 开放寻址表，每个元素为 (块ID << 32) | (槽位 + 1)，0表示空
+        private final long[] slotTable;
+        private final int count;
+
+        private Snapshot(ChunkDirectory directory, int count) {
+            this.chunkIds = directory.chunkIds;
+            this.pointers = directory.pointers;
+            this.sizes = directory.sizes;
+            this.flags = directory.flags;
+            this.minStudentIds = directory.minStudentIds;
+            this.maxStudentIds = directory.maxStudentIds;
+            this.recordCounts = directory.recordCounts;
+            this.checksums = directory.checksums;
+            this.nextSameIds = directory.nextSameIds;
+            this.slotTable = directory.slotTable;
+            this.count = count;
+        }
+
+        public int size() {
+            return count;
+        }
+
+        public int chunkId(int slot) {
+            return chunkIds[slot];
+        }
+
+        public long pointer(int slot) {
+            return pointers[slot];
+        }
+
+        public int chunkSize(int slot) {
+            return sizes[slot];
+        }
+
+        public int flags(int slot) {
+            return flags[slot];
+        }
+
+        public int minStudentId(int slot) {
+            return minStudentIds[slot];
+        }
+
+        public int maxStudentId(int slot) {
+            return maxStudentIds[slot];
+        }
+
+        public int recordCount(int slot) {
+            return recordCounts[slot];
+        }
+
+        /**
+         * 块数据的校验和，仅标志含 ChunkIndex.FLAG_CHECKSUM 时有效
+         */
+        public int checksum(int slot) {
+            return checksums[slot];
+        }
+
+        /**
+         * 块的学号区间是否覆盖目标学号
+         */
+        public boolean covers(int slot, int studentId) {
+            return ZoneMap.covers(minStudentIds[slot], maxStudentIds[slot], studentId);
+        }
+
+        /**
+         * 按块ID查找最先存储的一份的槽位，之后的各份用 next 遍历
+         * @return 槽位，不存在时返回-1
+         */
+        public int find(int chunkId) {
+            int mask = slotTable.length - 1;
+            for (int i = hash(chunkId) & mask; ; i = (i + 1) & mask) {
+                long cell = slotTable[i];
+                if (cell == 0) {
+                    return -1;
+                }
+                int slot = (int) cell - 1;
+                if ((int) (cell >>> 32) == chunkId) {
+                    // 晚于本快照写入的条目对本快照不可见
+                    return slot < count && chunkIds[slot] == chunkId ? slot : -1;
+                }
+            }
+        }
+
+        /**
+         * 同一块ID的下一份的槽位
+         * @return 槽位，没有更多(或晚于本快照写入)时返回-1
+         */
+        public int next(int slot) {
+            int next = nextSameIds[slot] - 1;
+            return next >= 0 && next < count ? next : -1;
+        }
+    }
+
+    private int[] chunkIds = new int[INITIAL_CAPACITY];
+    private long[] pointers = new long[INITIAL_CAPACITY];
+    private int[] sizes = new int[INITIAL_CAPACITY];
+    private int[] flags = new int[INITIAL_CAPACITY];
+    private int[] minStudentIds = new int[INITIAL_CAPACITY];
+    private int[] maxStudentIds = new int[INITIAL_CAPACITY];
+    private int[] recordCounts = new int[INITIAL_CAPACITY];
+    private int[] checksums = new int[INITIAL_CAPACITY];
+    private int[] nextSameIds = new int[INITIAL_CAPACITY]; // 同一块ID下一份的槽位 + 1，0表示没有
+    private long[] slotTable = new long[INITIAL_CAPACITY * 2];
+    private int count = 0;
+
+    private volatile Snapshot current = new Snapshot(this, 0);
+
+    /**
+     * 从索引构建目录
+     */
+    public static ChunkDirectory load(ChunkIndex index) {
+        ChunkDirectory directory = new ChunkDirectory();
+        for (StorageNode.IndexEntry entry : index.entries()) {
+            directory.add(entry);
+        }
+        return directory;
+    }
+
+    /**
+     * 当前快照
+     */
+    public Snapshot snapshot() {
+        return current;
+    }
+
+    /**
+     * 追加一个条目并发布新快照
+     * 同一块ID重复存储时，新条目接在该ID链的末尾；读取方只看到自己快照以内的槽位，
+     * 因此旧快照读到新写入的链接时也不会越界
+     */
+    public synchronized void add(StorageNode.IndexEntry entry) {
+        if (count == chunkIds.length) {
+            grow();
+        }
+
+        int slot = count;
+        chunkIds[slot] = entry.chunkId;
+        pointers[slot] = entry.pointer;
+        sizes[slot] = entry.size;
+        flags[slot] = entry.flags;
+        minStudentIds[slot] = entry.minStudentId;
+        maxStudentIds[slot] = entry.maxStudentId;
+        recordCounts[slot] = entry.recordCount;
+        checksums[slot] = entry.checksum;
+        nextSameIds[slot] = 0;
+        int first = insertSlot(slotTable, entry.chunkId, slot);
+        if (first != slot) {
+            int last = first;
+            while (nextSameIds[last] != 0) {
+                last = nextSameIds[last] - 1;
+            }
+            nextSameIds[last] = slot + 1;
+        }
+        count++;
+
+        current = new Snapshot(this, count);
+    }
+
+    private void grow() {
+        int newCapacity = chunkIds.length * 2;
+        chunkIds = Arrays.copyOf(chunkIds, newCapacity);
+        pointers = Arrays.copyOf(pointers, newCapacity);
+        sizes = Arrays.copyOf(sizes, newCapacity);
+        flags = Arrays.copyOf(flags, newCapacity);
+        minStudentIds = Arrays.copyOf(minStudentIds, newCapacity);
+        maxStudentIds = Arrays.copyOf(maxStudentIds, newCapacity);
+        recordCounts = Arrays.copyOf(recordCounts, newCapacity);
+        checksums = Arrays.copyOf(checksums, newCapacity);
+        nextSameIds = Arrays.copyOf(nextSameIds, newCapacity);
+
+        // 表容量保持为条目容量的两倍，装载因子不超过0.5
+        long[] newTable = new long[newCapacity * 2];
+        for (int slot = 0; slot < count; slot++) {
+            insertSlot(newTable, chunkIds[slot], slot);
+        }
+        slotTable = newTable;
+    }
+
+    /**
+     * 表中只记录每个块ID最先存储的槽位
+     * @return 该块ID最先存储的槽位(新ID即为slot)
+     */
+    private static int insertSlot(long[] table, int chunkId, int slot) {
+        int mask = table.length - 1;
+        for (int i = hash(chunkId) & mask; ; i = (i + 1) & mask) {
+            long cell = table[i];
+            if (cell == 0) {
+                table[i] = ((long) chunkId << 32) | (slot + 1L);
+                return slot;
+            }
+            if ((int) (cell >>> 32) == chunkId) {
+                return (int) cell - 1;
+            }
+        }
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
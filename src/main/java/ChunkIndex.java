@@ -0,0 +1,320 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.zip.CRC32;
+
+/**
+ * 二进制定长块索引(.idx)
+ * 文件整体内存映射，新条目直接写入映射区域，加载时无需逐行解析文本。
+ *
+ * 文件格式:
+ * [魔数 "CIDX"(4字节)][版本(4字节)][条目大小(4字节)][保留(4字节)]
+ * 之后为连续的条目，每条:
+ * [块ID(4字节)][指针(8字节)][大小(4字节)][标志(4字节)]
+ * [最小学号(4字节)][最大学号(4字节)][记录数(4字节)][块数据CRC32C(4字节)][CRC32校验(4字节)]
+ *
+ * 标志位见 FLAG_* 常量。块数据CRC32C是存储的块内容的校验和(ChunkChecksum)，仅标志含FLAG_CHECKSUM时有效。
+ *
+ * 校验和最后写入，作为条目的提交标记：加载时从头扫描，遇到校验失败(含全零的预分配空间)即停止，
+ * 因此写到一半的条目不会被读到。
+ *
+ * 版本1的条目没有学号区间字段(24字节)，版本2的条目没有块数据校验和(36字节)，
+ * 打开时会升级为当前版本，缺少的字段记为未知。
+ */
+public class ChunkIndex implements Closeable {
+    public static final int MAGIC = 0x43494458; // "CIDX"
+    public static final int VERSION = 3;
+    public static final int HEADER_SIZE = 16;
+    public static final int ENTRY_SIZE = 40;
+
+    // 条目标志位
+    public static final int FLAG_SORTED = 1; // 块内记录按学号升序排列
+    public static final int FLAG_CHECKSUM = 2; // 条目中的块数据校验和有效
+    public static final int CODEC_SHIFT = 8;  // 第8-11位为块的压缩编码号(ChunkCodec.id)，0为未压缩
+    public static final int CODEC_MASK = 0xF << CODEC_SHIFT;
+
+    private static final int V1_ENTRY_SIZE = 24;
+    private static final int V2_ENTRY_SIZE = 36;
+
+    private static final int CHECKED_BYTES = ENTRY_SIZE - 4;
+    private static final int INITIAL_CAPACITY = 1024; // 条目数
+
+    private final File file;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int count;
+
+    /**
+     * 打开(或创建)索引文件，旧的CSV格式或旧版本的二进制索引会先被转换
+     */
+    public ChunkIndex(File file) throws IOException {
+        this.file = file;
+        if (file.exists() && file.length() > 0 && readVersion(file) != VERSION) {
+            convertLegacyInPlace(file);
+        }
+
+        this.channel = FileChannel.open(file.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        long existingEntries = Math.max(0, (channel.size() - HEADER_SIZE) / ENTRY_SIZE);
+        this.capacity = (int) Math.max(INITIAL_CAPACITY, existingEntries);
+        map(capacity);
+
+        if (buffer.getInt(0) != MAGIC) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, ENTRY_SIZE);
+            buffer.putInt(12, 0);
+        } else if (buffer.getInt(4) != VERSION || buffer.getInt(8) != ENTRY_SIZE) {
+            throw new IOException("索引版本或条目大小不匹配: " + file.getName());
+        }
+
+        this.count = 0;
+        while (count < capacity && isValid(count)) {
+            count++;
+        }
+    }
+
+    private void map(int entries) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) entries * ENTRY_SIZE);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    private static int offset(int index) {
+        return HEADER_SIZE + index * ENTRY_SIZE;
+    }
+
+    private boolean isValid(int index) {
+        int offset = offset(index);
+        return buffer.getInt(offset + CHECKED_BYTES) == checksum(buffer, offset);
+    }
+
+    private static int checksum(ByteBuffer source, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(source.slice(offset, length));
+        return (int) crc.getValue();
+    }
+
+    private static int checksum(ByteBuffer source, int offset) {
+        return checksum(source, offset, CHECKED_BYTES);
+    }
+
+    /**
+     * 追加一个索引条目
+     */
+    public synchronized void append(StorageNode.IndexEntry entry) throws IOException {
+        if (count == capacity) {
+            capacity *= 2;
+            map(capacity);
+        }
+
+        write(count, entry);
+        count++;
+    }
+
+    /**
+     * 原地覆盖已有条目(用于补算区间摘要等)
+     */
+    public synchronized void set(int index, StorageNode.IndexEntry entry) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        write(index, entry);
+    }
+
+    private void write(int index, StorageNode.IndexEntry entry) {
+        int offset = offset(index);
+        buffer.putInt(offset, entry.chunkId);
+        buffer.putLong(offset + 4, entry.pointer);
+        buffer.putInt(offset + 12, entry.size);
+        buffer.putInt(offset + 16, entry.flags);
+        buffer.putInt(offset + 20, entry.minStudentId);
+        buffer.putInt(offset + 24, entry.maxStudentId);
+        buffer.putInt(offset + 28, entry.recordCount);
+        buffer.putInt(offset + 32, entry.checksum);
+        buffer.putInt(offset + CHECKED_BYTES, checksum(buffer, offset));
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized StorageNode.IndexEntry get(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        int offset = offset(index);
+        return new StorageNode.IndexEntry(
+            buffer.getInt(offset),
+            buffer.getLong(offset + 4),
+            buffer.getInt(offset + 12),
+            buffer.getInt(offset + 16),
+            buffer.getInt(offset + 20),
+            buffer.getInt(offset + 24),
+            buffer.getInt(offset + 28),
+            buffer.getInt(offset + 32)
+        );
+    }
+
+    /**
+     * 读取全部索引条目
+     */
+    public synchronized List<StorageNode.IndexEntry> entries() {
+        List<StorageNode.IndexEntry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            entries.add(get(i));
+        }
+        return entries;
+    }
+
+    /**
+     * 将映射区域的修改刷到磁盘
+     */
+    public synchronized void force() {
+        buffer.force();
+    }
+
+    /**
+     * 关闭索引，并截掉预分配但未使用的空间
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        buffer.force();
+        channel.truncate(offset(count));
+        channel.close();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * 读取二进制索引的版本号
+     * @return 版本号，不是二进制索引(CSV格式)时返回0
+     */
+    public static int readVersion(File file) throws IOException {
+        if (file.length() < HEADER_SIZE) {
+            return 0;
+        }
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
+            return dis.readInt() == MAGIC ? dis.readInt() : 0;
+        }
+    }
+
+    /**
+     * 将旧格式索引转换为当前的二进制格式，旧格式中没有的学号区间和校验和记为未知
+     * 支持CSV格式(每行 "块ID,指针,大小")和版本1、2的二进制格式
+     * @return 转换的条目数
+     */
+    public static int convertLegacy(File legacyFile, File binFile) throws IOException {
+        int version = readVersion(legacyFile);
+        List<StorageNode.IndexEntry> entries = version == 0
+            ? readCsv(legacyFile) : readOldBinary(legacyFile, version);
+
+        try (ChunkIndex index = new ChunkIndex(binFile)) {
+            for (StorageNode.IndexEntry entry : entries) {
+                index.append(entry);
+            }
+        }
+        return entries.size();
+    }
+
+    private static List<StorageNode.IndexEntry> readCsv(File csvFile) throws IOException {
+        List<StorageNode.IndexEntry> entries = new ArrayList<>();
+        try (Scanner scanner = new Scanner(csvFile)) {
+            while (scanner.hasNextLine()) {
+                String line = scanner.nextLine().trim();
+                if (!line.isEmpty()) {
+                    StorageNode.IndexEntry entry = StorageNode.IndexEntry.fromString(line);
+                    if (entry != null) {
+                        entries.add(entry);
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static List<StorageNode.IndexEntry> readOldBinary(File oldFile, int version) throws IOException {
+        int entrySize = version == 1 ? V1_ENTRY_SIZE : V2_ENTRY_SIZE;
+        List<StorageNode.IndexEntry> entries = new ArrayList<>();
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(oldFile.toPath()));
+        for (int offset = HEADER_SIZE; offset + entrySize <= data.limit(); offset += entrySize) {
+            if (data.getInt(offset + entrySize - 4) != checksum(data, offset, entrySize - 4)) {
+                break;
+            }
+            ZoneMap zoneMap = version == 1 ? ZoneMap.UNKNOWN
+                : new ZoneMap(data.getInt(offset + 20), data.getInt(offset + 24), data.getInt(offset + 28));
+            entries.add(new StorageNode.IndexEntry(
+                data.getInt(offset), data.getLong(offset + 4), data.getInt(offset + 12),
+                data.getInt(offset + 16) & ~FLAG_CHECKSUM, zoneMap));
+        }
+        return entries;
+    }
+
+    /**
+     * 原地转换：旧文件保留为 .bak，新的二进制索引使用原文件名
+     */
+    private static void convertLegacyInPlace(File file) throws IOException {
+        int version = readVersion(file);
+        File tmpFile = new File(file.getPath() + ".tmp");
+        File backupFile = new File(file.getPath() + (version == 0 ? ".csv.bak" : ".v" + version + ".bak"));
+        Files.deleteIfExists(tmpFile.toPath());
+
+        int converted = convertLegacy(file, tmpFile);
+        Files.move(file.toPath(), backupFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        System.out.println("已将索引 " + file.getName() + " 转换为版本 " + VERSION + " 的二进制格式，条目数: " +
+                           converted + "，原文件备份为 " + backupFile.getName());
+    }
+
+    /**
+     * 条目标志中记录的压缩编码，未知编码号返回null
+     */
+    public static ChunkCodec codecOf(int flags) {
+        return ChunkCodec.fromId((flags & CODEC_MASK) >>> CODEC_SHIFT);
+    }
+
+    public static int codecFlags(ChunkCodec codec) {
+        return codec.id << CODEC_SHIFT;
+    }
+
+    /**
+     * 一次性转换工具
+     * 用法: java ChunkIndex <idx文件>...
+     */
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("用法: java ChunkIndex <idx文件>...");
+            return;
+        }
+
+        for (String path : args) {
+            File file = new File(path);
+            try {
+                if (!file.exists()) {
+                    System.err.println("文件不存在: " + path);
+                } else if (readVersion(file) == VERSION) {
+                    System.out.println(path + " 已是当前格式，跳过");
+                } else {
+                    convertLegacyInPlace(file);
+                }
+            } catch (IOException e) {
+                System.err.println("转换 " + path + " 失败: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 按块读取待分发的数据文件
+ * 每块是源文件对应区间的只读内存映射，不读入堆内存，页面由操作系统按需换入、换出，
+ * 客户端的内存占用与文件大小无关，可以分发超过堆大小的文件。
+ * 块大小按记录长度(StudentRecord.SIZE)向下对齐，块边界不会把一条记录切成两半，
+ * 每块都能单独解析；只有源文件本身不是整条记录时最后一块带有不完整的尾部。
+ * 可以被多个线程同时使用：每次取块都创建新的映射，互不影响position。
+ */
+public class ChunkSource implements Closeable {
+    public static final int DEFAULT_CHUNK_SIZE = alignToRecords(1024 * 1024); // 约1024KB，52428条记录
+
+    private final FileChannel channel;
+    private final long size;
+    private final int chunkSize;
+
+    /**
+     * @param chunkSize 目标块大小，按记录长度向下对齐
+     */
+    public ChunkSource(Path file, int chunkSize) throws IOException {
+        if (chunkSize < StudentRecord.SIZE || chunkSize > MappedDataFile.MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("无效的块大小: " + chunkSize);
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.chunkSize = alignToRecords(chunkSize);
+    }
+    
+    /**
+     * 按环境变量 CHUNK_SIZE_KB(默认1024)指定的目标块大小打开
+     */
+    public static ChunkSource fromEnv(Path file) throws IOException {
+        return new ChunkSource(file, chunkSizeFromEnv());
+    }
+    
+    public static int chunkSizeFromEnv() {
+        String value = System.getenv("CHUNK_SIZE_KB");
+        if (value == null || value.isEmpty()) {
+            return DEFAULT_CHUNK_SIZE;
+        }
+        return alignToRecords(Integer.parseInt(value.trim()) * 1024);
+    }
+    
+    /**
+     * 向下取整到记录长度的整数倍，至少一条记录
+     */
+    public static int alignToRecords(int bytes) {
+        return Math.max(StudentRecord.SIZE, bytes / StudentRecord.SIZE * StudentRecord.SIZE);
+    }
+
+    /**
+     * 文件总字节数
+     */
+    public long size() {
+        return size;
+    }
+
+    public int chunkSize() {
+        return chunkSize;
+    }
+
+    public int chunkCount() {
+        return (int) ((size + chunkSize - 1) / chunkSize);
+    }
+
+    /**
+     * 块在文件中的起始位置
+     */
+    public long offset(int chunkId) {
+        return (long) chunkId * chunkSize;
+    }
+
+    /**
+     * 块的字节数，只有最后一块可能不满
+     */
+    public int length(int chunkId) {
+        return (int) Math.min(chunkSize, size - offset(chunkId));
+    }
+
+    /**
+     * 块数据的只读映射
+     */
+    public ByteBuffer chunk(int chunkId) throws IOException {
+        if (chunkId < 0 || chunkId >= chunkCount()) {
+            throw new IndexOutOfBoundsException("块ID超出范围: " + chunkId);
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset(chunkId), length(chunkId));
+    }
+
+    /**
+     * 源文件的通道，用于transferTo直接发送块数据
+     */
+    public FileChannel channel() {
+        return channel;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
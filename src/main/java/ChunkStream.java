@@ -0,0 +1,227 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 基于TCP的批量数据块导入通道
+ * 客户端与每个存储节点保持一条持久连接，连续发送带长度前缀的数据块帧；
+ * 块数据用 FileChannel.transferTo 直接从源 .dat 文件发出，节点用 transferFrom 直接写入自己的 .dat，
+ * 数据块不经过堆上的byte[]。可靠性由TCP保证，不需要UDP路径的分片和重传。
+ *
+ * 数据帧: [块ID(4字节)][标志(1字节)][数据长度(4字节)][块校验和CRC32C(4字节)]
+ *         [链式复制目标长度(1字节)][链式复制目标 "主机:导入端口"，仅标志含FLAG_CHAIN时][数据内容]
+ * 确认:   [块ID(4字节)][状态(1字节，0=已存储 1=失败 2=已存储但转发到备份节点失败 3=校验和不符)]
+ *
+ * 标志第0位为主存储，第1位为链式复制，高4位为块数据的压缩编码(ChunkCodec.id)。
+ * 压缩后的块从内存缓冲区发送，节点同样原样写入。节点写入后按校验和(ChunkChecksum)校验，不符时不建索引。
+ *
+ * 节点按帧顺序逐个存储并确认，发送方最多有 MAX_IN_FLIGHT 个未确认的帧。所有整数均为大端序。
+ * 链式复制时节点存储后通过自己的ChunkStream把块转发给目标节点，收到目标节点的确认后才确认本帧，
+ * 期间继续接收后续的帧，转发与接收流水线进行。
+ */
+public class ChunkStream implements Closeable {
+    public static final int FRAME_HEADER_SIZE = 13;
+    public static final int ACK_SIZE = 5;
+    public static final byte STATUS_STORED = 0;
+    public static final byte STATUS_FAILED = 1;
+    public static final byte STATUS_REPLICA_FAILED = 2;
+    public static final byte STATUS_CORRUPT = 3;
+
+    public static final byte FLAG_PRIMARY = 1;
+    public static final byte FLAG_CHAIN = 2;
+    public static final int MAX_CHAIN_TARGET = 255;
+    public static final int CODEC_SHIFT = 4;
+
+    public static final int MAX_IN_FLIGHT = 8;
+
+    private final SocketChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE + 1 + MAX_CHAIN_TARGET);
+    private final ByteBuffer ack = ByteBuffer.allocate(ACK_SIZE);
+    // 写帧和读确认可能在不同线程(节点转发时)
+    private final Queue<Integer> inFlight = new ConcurrentLinkedQueue<>();
+    private final List<Integer> replicaFailures = new ArrayList<>();
+    private final List<Integer> stored = new ArrayList<>();
+
+    /**
+     * 连接到存储节点的导入端口
+     */
+    public ChunkStream(String host, int port) throws IOException {
+        this.channel = SocketChannel.open(new InetSocketAddress(host, port));
+        this.channel.socket().setTcpNoDelay(true);
+    }
+
+    /**
+     * 发送源文件中的一段作为一个数据块
+     * 未确认的帧达到上限时先等待最早的确认
+     * @throws IOException 连接失败或节点存储失败
+     */
+    public void sendChunk(int chunkId, FileChannel source, long position, int length, boolean isPrimary)
+            throws IOException {
+        sendChunk(chunkId, source, position, length, isPrimary, null,
+                  ChunkChecksum.of(source, position, length));
+    }
+
+    /**
+     * 发送数据块，节点存储后链式转发给chainTarget("主机:导入端口")
+     * 节点转发失败的块记入 takeReplicaFailures()，不视为错误
+     * @param checksum 块数据的校验和
+     */
+    public void sendChunk(int chunkId, FileChannel source, long position, int length, boolean isPrimary,
+                          String chainTarget, int checksum) throws IOException {
+        awaitWindow();
+        writeFrame(chunkId, source, position, length, isPrimary, chainTarget, ChunkCodec.NONE, checksum);
+    }
+
+    /**
+     * 发送内存中已按codec压缩的数据块(position到limit)
+     */
+    public void sendChunk(int chunkId, ByteBuffer data, boolean isPrimary, String chainTarget, ChunkCodec codec,
+                          int checksum) throws IOException {
+        awaitWindow();
+        writeHeader(chunkId, isPrimary, chainTarget, codec, data.remaining(), checksum);
+        ByteBuffer body = data.duplicate();
+        while (body.hasRemaining()) {
+            channel.write(body);
+        }
+    }
+
+    private void awaitWindow() throws IOException {
+        while (inFlight.size() >= MAX_IN_FLIGHT) {
+            awaitAck();
+        }
+    }
+
+    /**
+     * 只写出一帧，不等待确认
+     * 调用方负责限制未确认的帧数，并用 readAck() 按顺序读取确认
+     */
+    public void writeFrame(int chunkId, FileChannel source, long position, int length, boolean isPrimary,
+                           String chainTarget, ChunkCodec codec, int checksum) throws IOException {
+        writeHeader(chunkId, isPrimary, chainTarget, codec, length, checksum);
+        long sent = 0;
+        while (sent < length) {
+            long transferred = source.transferTo(position + sent, length - sent, channel);
+            if (transferred <= 0) {
+                throw new EOFException("源文件提前结束: " + (position + sent));
+            }
+            sent += transferred;
+        }
+    }
+
+    private void writeHeader(int chunkId, boolean isPrimary, String chainTarget, ChunkCodec codec, int length,
+                             int checksum) throws IOException {
+        byte[] chain = chainTarget != null ? chainTarget.getBytes(StandardCharsets.UTF_8) : null;
+        if (chain != null && chain.length > MAX_CHAIN_TARGET) {
+            throw new IOException("链式复制目标过长: " + chainTarget);
+        }
+        header.clear();
+        header.putInt(chunkId);
+        header.put((byte) ((isPrimary ? FLAG_PRIMARY : 0) | (chain != null ? FLAG_CHAIN : 0)
+                           | codec.id << CODEC_SHIFT));
+        header.putInt(length);
+        header.putInt(checksum);
+        if (chain != null) {
+            header.put((byte) chain.length);
+            header.put(chain);
+        }
+        header.flip();
+        inFlight.add(chunkId);
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    /**
+     * 等待所有已发送的帧被确认
+     */
+    public void flush() throws IOException {
+        while (!inFlight.isEmpty()) {
+            awaitAck();
+        }
+    }
+
+    private void awaitAck() throws IOException {
+        int chunkId = inFlight.peek();
+        byte status = readAck();
+        if (status == STATUS_STORED) {
+            stored.add(chunkId);
+        } else if (status == STATUS_REPLICA_FAILED) {
+            replicaFailures.add(chunkId);
+        } else if (status == STATUS_CORRUPT) {
+            throw new ChunkChecksum.MismatchException("节点收到的数据块 " + chunkId + " 已损坏");
+        } else {
+            throw new IOException("节点存储数据块 " + chunkId + " 失败");
+        }
+    }
+
+    /**
+     * 读取最早一个未确认帧的确认
+     * @return 确认状态
+     */
+    public byte readAck() throws IOException {
+        ack.clear();
+        if (!readFully(channel, ack)) {
+            throw new EOFException("节点关闭了导入连接");
+        }
+        Integer expected = inFlight.poll();
+        int chunkId = ack.getInt(0);
+        if (expected == null || chunkId != expected) {
+            throw new IOException("确认顺序错误，期望块 " + expected + "，收到块 " + chunkId);
+        }
+        return ack.get(4);
+    }
+
+    /**
+     * 取出节点已确认存储的块ID(链式复制时备份节点也已存储)，不含转发失败的块
+     */
+    public List<Integer> takeStored() {
+        List<Integer> chunkIds = new ArrayList<>(stored);
+        stored.clear();
+        return chunkIds;
+    }
+
+    /**
+     * 取出已确认但节点转发到备份节点失败的块ID，需要由调用方直接补发给备份节点
+     */
+    public List<Integer> takeReplicaFailures() {
+        List<Integer> failures = new ArrayList<>(replicaFailures);
+        replicaFailures.clear();
+        return failures;
+    }
+
+    /**
+     * 从通道读满缓冲区
+     * @return 是否读满，连接在帧开始前关闭时返回false
+     * @throws EOFException 连接在帧中间关闭
+     */
+    public static boolean readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        boolean started = buffer.position() > 0;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (!started && buffer.position() == 0) {
+                    return false;
+                }
+                throw new EOFException("连接在帧中间关闭");
+            }
+        }
+        return true;
+    }
+
+    public static byte[] encodeAck(int chunkId, byte status) {
+        return ByteBuffer.allocate(ACK_SIZE).putInt(chunkId).put(status).array();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
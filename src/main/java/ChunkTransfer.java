@@ -0,0 +1,452 @@
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 数据块可靠传输协议(UDP)
+ * 数据块拆成不超过MTU的分片发送，发送方维护滑动窗口，接收方用累计确认加选择确认位图回复，
+ * 发送方据此只重传缺失的分片；节点重组并存储完整个块后回复COMPLETE，发送方此时才返回。
+ *
+ * 数据分片: [魔数 "CT"(2字节)][版本(1字节)][类型=1(1字节)][传输ID(4字节)][块ID(4字节)][标志(1字节)]
+ *          [分片序号(4字节)][分片总数(4字节)][块总长度(4字节)][块校验和CRC32C(4字节)]
+ *          [链式复制目标长度(1字节)][链式复制目标 "主机:端口"，仅标志含FLAG_CHAIN时]
+ *          [分片数据(最多 FRAGMENT_PAYLOAD 字节)]
+ * 确认:     [魔数(2字节)][版本(1字节)][类型=2(1字节)][传输ID(4字节)][累计确认(4字节)]
+ *          [位图长度(2字节)][位图: 第i位表示 累计确认+i 号分片已收到]
+ * 完成:     [魔数(2字节)][版本(1字节)][类型=3(1字节)][传输ID(4字节)][状态(1字节)]
+ *
+ * 标志第0位为主存储，第1位为链式复制，高4位为块数据的压缩编码(ChunkCodec.id)，块总长度为压缩后的长度。
+ * 节点重组后按块校验和(ChunkChecksum)校验整个块，不符时不存储，回复 STATUS_CORRUPT。
+ *
+ * 链式复制时节点存储数据块后把它转发给链式复制目标(备份节点)，备份节点存储完成后才回复发送方COMPLETE；
+ * 本节点已存储但转发失败时回复 STATUS_REPLICA_FAILED，由发送方直接补发给备份节点。
+ *
+ * 累计确认为接收方第一个缺失分片的序号。所有整数均为大端序。
+ *
+ * 指定 RatePacer 时每个分片发送前先取令牌，确认的进展和丢包(位图空洞、超时)反馈给它调整速率。
+ */
+public class ChunkTransfer {
+    public static final short MAGIC = 0x4354; // "CT"
+    public static final byte VERSION = 2;
+
+    // 消息类型
+    public static final byte TYPE_DATA = 1;
+    public static final byte TYPE_ACK = 2;
+    public static final byte TYPE_COMPLETE = 3;
+
+    // 完成状态
+    public static final byte STATUS_STORED = 0;
+    public static final byte STATUS_FAILED = 1;
+    public static final byte STATUS_REPLICA_FAILED = 2;
+    public static final byte STATUS_CORRUPT = 3;
+
+    // 数据分片标志
+    public static final byte FLAG_PRIMARY = 1;
+    public static final byte FLAG_CHAIN = 2;
+    public static final int CODEC_SHIFT = 4;
+
+    public static final int DATA_HEADER_SIZE = 29;
+    public static final int FRAGMENT_PAYLOAD = 1400; // 头部 + 数据不超过以太网MTU
+    public static final int MAX_CHAIN_TARGET = 40;   // 链式复制目标的最大字节数
+    public static final int MAX_PACKET_SIZE = DATA_HEADER_SIZE + 1 + MAX_CHAIN_TARGET + FRAGMENT_PAYLOAD;
+    public static final int MAX_CHUNK_SIZE = MappedDataFile.MAX_CHUNK_SIZE;
+
+    public static final int WINDOW = 256;       // 发送窗口(分片数)
+    public static final int SACK_BITS = 1024;   // 确认位图覆盖的分片数，不小于窗口
+    public static final int ACK_EVERY = 16;     // 接收方每收到这么多分片确认一次
+
+    private static final int DUP_THRESHOLD = 3;      // 之后的分片已确认这么多个，视为丢失
+    private static final int INITIAL_RTO_MS = 100;
+    private static final int MAX_RTO_MS = 2000;
+    private static final int MAX_TIMEOUTS = 8;       // 连续超时次数上限
+
+    private ChunkTransfer() {
+    }
+
+    /**
+     * 节点已存储数据块，但链式转发给备份节点失败
+     */
+    public static class ReplicaFailedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public ReplicaFailedException(int chunkId) {
+            super("数据块 " + chunkId + " 已存储，但转发到备份节点失败");
+        }
+    }
+
+    /**
+     * 链式复制目标能否放入分片头部(UTF-8编码不超过 MAX_CHAIN_TARGET 字节)
+     */
+    public static boolean fitsChainTarget(String chainTarget) {
+        return chainTarget.getBytes(StandardCharsets.UTF_8).length <= MAX_CHAIN_TARGET;
+    }
+
+    /**
+     * 发送一个数据块，阻塞到节点确认存储完成
+     * @param data 块数据，从position到limit
+     * @param chainTarget 链式复制目标 "主机:端口"，null表示不转发
+     * @param codec data的压缩编码，节点按此编码存储
+     * @param checksum data的校验和(ChunkChecksum)
+     * @param pacer 发送速率控制，null表示不限速
+     * @return 重传的分片数
+     * @throws ReplicaFailedException 节点已存储但转发到链式复制目标失败
+     * @throws ChunkChecksum.MismatchException 节点收到的数据与校验和不符，未存储
+     * @throws IOException 多次超时或节点存储失败
+     * @throws IllegalArgumentException 链式复制目标过长(本地错误，与节点无关，发送前应先用fitsChainTarget检查)
+     */
+    public static int send(DatagramSocket socket, InetAddress address, int port, int chunkId, ByteBuffer data,
+                           boolean isPrimary, String chainTarget, ChunkCodec codec, int checksum,
+                           RatePacer pacer) throws IOException {
+        int totalLength = data.remaining();
+        if (totalLength > MAX_CHUNK_SIZE) {
+            throw new IOException("数据块过大: " + totalLength + " 字节");
+        }
+        byte[] chain = chainTarget != null ? chainTarget.getBytes(StandardCharsets.UTF_8) : null;
+        if (chain != null && chain.length > MAX_CHAIN_TARGET) {
+            throw new IllegalArgumentException("链式复制目标超过 " + MAX_CHAIN_TARGET + " 字节: " + chainTarget);
+        }
+        byte flags = (byte) ((isPrimary ? FLAG_PRIMARY : 0) | (chain != null ? FLAG_CHAIN : 0)
+                             | codec.id << CODEC_SHIFT);
+        int fragmentCount = Math.max(1, (totalLength + FRAGMENT_PAYLOAD - 1) / FRAGMENT_PAYLOAD);
+        int transferId = ThreadLocalRandom.current().nextInt();
+
+        boolean[] acked = new boolean[fragmentCount];
+        long[] sentAt = new long[fragmentCount];
+        boolean[] resent = new boolean[fragmentCount];
+        int cumulative = 0;  // 之前的分片均已确认
+        int nextToSend = 0;
+        int retransmissions = 0;
+        int timeouts = 0;
+        int rto = INITIAL_RTO_MS;
+
+        byte[] packetData = new byte[MAX_PACKET_SIZE];
+        byte[] receiveBuffer = new byte[MAX_PACKET_SIZE];
+        int originalTimeout = socket.getSoTimeout();
+
+        try {
+            while (true) {
+                // 填满发送窗口
+                while (nextToSend < fragmentCount && nextToSend < cumulative + WINDOW) {
+                    sendFragment(socket, address, port, packetData, transferId, chunkId, flags, checksum, chain,
+                                 nextToSend, fragmentCount, data, totalLength, pacer, false);
+                    sentAt[nextToSend] = System.nanoTime();
+                    nextToSend++;
+                }
+
+                socket.setSoTimeout(rto);
+                DatagramPacket packet = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+                try {
+                    socket.receive(packet);
+                } catch (SocketTimeoutException e) {
+                    if (++timeouts > MAX_TIMEOUTS) {
+                        throw new IOException("传输数据块 " + chunkId + " 超时");
+                    }
+                    // 只重传第一个和最后一个未确认的分片作为探测，接收方收到重复或乱序分片会立即回复
+                    // 带位图的确认，其余缺失的分片再按位图快速重传；同时退避
+                    long now = System.nanoTime();
+                    int last = nextToSend - 1;
+                    while (last > cumulative && acked[last]) {
+                        last--;
+                    }
+                    if (pacer != null) {
+                        pacer.onLoss((nextToSend - cumulative) * FRAGMENT_PAYLOAD, true);
+                    }
+                    for (int i : last > cumulative ? new int[] {cumulative, last} : new int[] {cumulative}) {
+                        sendFragment(socket, address, port, packetData, transferId, chunkId, flags, checksum, chain,
+                                     i, fragmentCount, data, totalLength, pacer, true);
+                        sentAt[i] = now;
+                        resent[i] = true;
+                        retransmissions++;
+                    }
+                    rto = Math.min(rto * 2, MAX_RTO_MS);
+                    continue;
+                }
+
+                ByteBuffer reply = ByteBuffer.wrap(packet.getData(), 0, packet.getLength());
+                if (packet.getLength() < 9 || reply.getShort(0) != MAGIC || reply.get(2) != VERSION
+                        || reply.getInt(4) != transferId) {
+                    continue;
+                }
+
+                byte type = reply.get(3);
+                if (type == TYPE_COMPLETE) {
+                    if (reply.get(8) == STATUS_REPLICA_FAILED) {
+                        throw new ReplicaFailedException(chunkId);
+                    }
+                    if (reply.get(8) == STATUS_CORRUPT) {
+                        throw new ChunkChecksum.MismatchException("节点收到的数据块 " + chunkId + " 已损坏");
+                    }
+                    if (reply.get(8) != STATUS_STORED) {
+                        throw new IOException("节点存储数据块 " + chunkId + " 失败");
+                    }
+                    return retransmissions;
+                }
+                if (type != TYPE_ACK || packet.getLength() < 14) {
+                    continue;
+                }
+
+                // 处理确认：累计确认 + 选择确认位图
+                int ackedUpTo = Math.min(reply.getInt(8), fragmentCount);
+                int bitmapLength = Math.min(reply.getShort(12) & 0xFFFF, packet.getLength() - 14);
+                int newlyAcked = 0;
+                for (int i = cumulative; i < ackedUpTo; i++) {
+                    if (!acked[i]) {
+                        acked[i] = true;
+                        newlyAcked++;
+                    }
+                }
+                int highestAcked = ackedUpTo - 1;
+                for (int bit = 0; bit < bitmapLength * 8; bit++) {
+                    int index = ackedUpTo + bit;
+                    if (index >= fragmentCount) {
+                        break;
+                    }
+                    if ((reply.get(14 + bit / 8) & (1 << (bit % 8))) != 0) {
+                        if (!acked[index]) {
+                            acked[index] = true;
+                            newlyAcked++;
+                        }
+                        highestAcked = index;
+                    }
+                }
+                while (cumulative < fragmentCount && acked[cumulative]) {
+                    cumulative++;
+                }
+                if (newlyAcked > 0) {
+                    timeouts = 0;
+                    rto = INITIAL_RTO_MS;
+                    if (pacer != null) {
+                        pacer.onAck(newlyAcked * FRAGMENT_PAYLOAD);
+                    }
+                }
+
+                // 之后已有足够多分片被确认的空洞视为丢失，立即重传；已重传过的分片一个RTO内不再重传
+                long now = System.nanoTime();
+                for (int i = cumulative; i <= highestAcked - DUP_THRESHOLD; i++) {
+                    if (!acked[i] && (!resent[i] || now - sentAt[i] > rto * 1_000_000L)) {
+                        if (pacer != null && !resent[i]) {
+                            pacer.onLoss(FRAGMENT_PAYLOAD, false);
+                        }
+                        sendFragment(socket, address, port, packetData, transferId, chunkId, flags, checksum, chain,
+                                     i, fragmentCount, data, totalLength, pacer, true);
+                        sentAt[i] = now;
+                        resent[i] = true;
+                        retransmissions++;
+                    }
+                }
+            }
+        } finally {
+            socket.setSoTimeout(originalTimeout);
+        }
+    }
+
+    private static void sendFragment(DatagramSocket socket, InetAddress address, int port, byte[] packetData,
+                                     int transferId, int chunkId, byte flags, int checksum, byte[] chain,
+                                     int index, int fragmentCount, ByteBuffer data, int totalLength,
+                                     RatePacer pacer, boolean retransmission) throws IOException {
+        int offset = index * FRAGMENT_PAYLOAD;
+        int length = Math.min(FRAGMENT_PAYLOAD, totalLength - offset);
+        if (pacer != null) {
+            pacer.acquire(DATA_HEADER_SIZE + length, retransmission);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(packetData);
+        buffer.putShort(MAGIC);
+        buffer.put(VERSION);
+        buffer.put(TYPE_DATA);
+        buffer.putInt(transferId);
+        buffer.putInt(chunkId);
+        buffer.put(flags);
+        buffer.putInt(index);
+        buffer.putInt(fragmentCount);
+        buffer.putInt(totalLength);
+        buffer.putInt(checksum);
+        if (chain != null) {
+            buffer.put((byte) chain.length);
+            buffer.put(chain);
+        }
+        buffer.put(data.slice(data.position() + offset, length));
+
+        socket.send(new DatagramPacket(packetData, buffer.position(), address, port));
+    }
+
+    /**
+     * 解码后的数据分片
+     */
+    public static class Fragment {
+        public final int transferId;
+        public final int chunkId;
+        public final boolean isPrimary;
+        public final String chainTarget;
+        public final ChunkCodec codec;
+        public final int checksum;
+        public final int index;
+        public final int fragmentCount;
+        public final int totalLength;
+        public final byte[] data;
+        public final int dataOffset;
+        public final int dataLength;
+
+        Fragment(int transferId, int chunkId, boolean isPrimary, String chainTarget, ChunkCodec codec, int checksum,
+                 int index, int fragmentCount, int totalLength, byte[] data, int dataOffset, int dataLength) {
+            this.transferId = transferId;
+            this.chunkId = chunkId;
+            this.isPrimary = isPrimary;
+            this.chainTarget = chainTarget;
+            this.codec = codec;
+            this.checksum = checksum;
+            this.index = index;
+            this.fragmentCount = fragmentCount;
+            this.totalLength = totalLength;
+            this.data = data;
+            this.dataOffset = dataOffset;
+            this.dataLength = dataLength;
+        }
+    }
+
+    /**
+     * 解码数据分片，分片数据不复制，引用原缓冲区
+     * @return 分片，不是本协议的报文或格式错误时返回null
+     */
+    public static Fragment decodeFragment(byte[] data, int length) {
+        if (length < DATA_HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+        if (buffer.getShort(0) != MAGIC || buffer.get(2) != VERSION || buffer.get(3) != TYPE_DATA) {
+            return null;
+        }
+        int index = buffer.getInt(13);
+        int fragmentCount = buffer.getInt(17);
+        int totalLength = buffer.getInt(21);
+        byte flags = buffer.get(12);
+        ChunkCodec codec = ChunkCodec.fromId((flags & 0xFF) >>> CODEC_SHIFT);
+        if (codec == null) {
+            return null;
+        }
+        int dataOffset = DATA_HEADER_SIZE;
+        String chainTarget = null;
+        if ((flags & FLAG_CHAIN) != 0) {
+            int chainLength = length > DATA_HEADER_SIZE ? data[DATA_HEADER_SIZE] & 0xFF : -1;
+            if (chainLength <= 0 || chainLength > MAX_CHAIN_TARGET || length < DATA_HEADER_SIZE + 1 + chainLength) {
+                return null;
+            }
+            chainTarget = new String(data, DATA_HEADER_SIZE + 1, chainLength, StandardCharsets.UTF_8);
+            dataOffset += 1 + chainLength;
+        }
+        int dataLength = length - dataOffset;
+
+        if (totalLength < 0 || totalLength > MAX_CHUNK_SIZE
+                || fragmentCount != Math.max(1, (totalLength + FRAGMENT_PAYLOAD - 1) / FRAGMENT_PAYLOAD)
+                || index < 0 || index >= fragmentCount
+                || dataLength != Math.min(FRAGMENT_PAYLOAD, totalLength - index * FRAGMENT_PAYLOAD)) {
+            return null;
+        }
+        return new Fragment(buffer.getInt(4), buffer.getInt(8), (flags & FLAG_PRIMARY) != 0, chainTarget, codec,
+                            buffer.getInt(25), index, fragmentCount, totalLength, data, dataOffset, dataLength);
+    }
+
+    /**
+     * 接收方的单个数据块重组状态
+     */
+    public static class Reassembly {
+        public final int transferId;
+        public final int chunkId;
+        public final boolean isPrimary;
+        public final String chainTarget;
+        public final ChunkCodec codec;
+        public final int checksum;
+        private final byte[] data;
+        private final BitSet received;
+        private final int fragmentCount;
+        private int receivedCount;
+        private int sinceAck;
+        private long lastActivity;
+
+        public Reassembly(Fragment first) {
+            this.transferId = first.transferId;
+            this.chunkId = first.chunkId;
+            this.isPrimary = first.isPrimary;
+            this.chainTarget = first.chainTarget;
+            this.codec = first.codec;
+            this.checksum = first.checksum;
+            this.data = new byte[first.totalLength];
+            this.fragmentCount = first.fragmentCount;
+            this.received = new BitSet(fragmentCount);
+        }
+
+        /**
+         * 放入一个分片
+         * @return 是否需要立即回复确认：累计到ACK_EVERY个分片、乱序到达、补上了空洞或重复分片(发送方在重传)
+         */
+        public boolean add(Fragment fragment) {
+            lastActivity = System.nanoTime();
+            if (fragment.fragmentCount != fragmentCount || fragment.totalLength != data.length
+                    || fragment.checksum != checksum) {
+                return false;
+            }
+            if (received.get(fragment.index)) {
+                return true;
+            }
+            boolean inOrder = fragment.index == received.nextClearBit(0) && fragment.index >= received.length();
+            System.arraycopy(fragment.data, fragment.dataOffset, data,
+                             fragment.index * FRAGMENT_PAYLOAD, fragment.dataLength);
+            received.set(fragment.index);
+            receivedCount++;
+            return !inOrder || ++sinceAck >= ACK_EVERY;
+        }
+
+        public boolean isComplete() {
+            return receivedCount == fragmentCount;
+        }
+
+        public byte[] data() {
+            return data;
+        }
+
+        public long lastActivity() {
+            return lastActivity;
+        }
+
+        /**
+         * 编码当前的确认报文
+         */
+        public byte[] encodeAck() {
+            sinceAck = 0;
+            int cumulative = received.nextClearBit(0);
+            ByteBuffer buffer = ByteBuffer.allocate(14 + SACK_BITS / 8);
+            buffer.putShort(MAGIC);
+            buffer.put(VERSION);
+            buffer.put(TYPE_ACK);
+            buffer.putInt(transferId);
+            buffer.putInt(cumulative);
+            buffer.putShort((short) (SACK_BITS / 8));
+            for (int bit = 0; bit < SACK_BITS; bit += 8) {
+                int bits = 0;
+                for (int i = 0; i < 8; i++) {
+                    if (received.get(cumulative + bit + i)) {
+                        bits |= 1 << i;
+                    }
+                }
+                buffer.put((byte) bits);
+            }
+            return buffer.array();
+        }
+    }
+
+    public static byte[] encodeComplete(int transferId, byte status) {
+        ByteBuffer buffer = ByteBuffer.allocate(9);
+        buffer.putShort(MAGIC);
+        buffer.put(VERSION);
+        buffer.put(TYPE_COMPLETE);
+        buffer.putInt(transferId);
+        buffer.put(status);
+        return buffer.array();
+    }
+}
@@ -1,28 +1,54 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
 
 public class Client {
     private DatReader datReader;
     private List<StorageNodeInfo> storageNodes;
-    private Random random;
+    private PlacementEngine placement;
+    private UploadManifest manifest;
+    private File routingTableFile;
+    private boolean chainReplication;
+    private ChunkCodec codec = ChunkCodec.NONE;
     
     public static class StorageNodeInfo {
         public String host;
         public int port;
         public int nodeId;
+        public int queryPort;
+        public int ingestPort;
         
         public StorageNodeInfo(String host, int port, int nodeId) {
+            this(host, port, nodeId, port + 1000);
+        }
+        
+        public StorageNodeInfo(String host, int port, int nodeId, int queryPort) {
+            this(host, port, nodeId, queryPort, port + 2000);
+        }
+        
+        public StorageNodeInfo(String host, int port, int nodeId, int queryPort, int ingestPort) {
             this.host = host;
             this.port = port;
             this.nodeId = nodeId;
+            this.queryPort = queryPort;
+            this.ingestPort = ingestPort;
         }
     }
 
     public Client(String datFilePath, List<StorageNodeInfo> storageNodes) throws IOException {
         this.datReader = new DatReader(datFilePath);
         this.storageNodes = storageNodes;
-        this.random = new Random();
+        this.routingTableFile = RoutingTable.defaultFile();
+        // REPLICATION=chain 时只发给主节点，由主节点转发给备份节点；默认由客户端分别发送
+        this.chainReplication = "chain".equalsIgnoreCase(System.getenv("REPLICATION"));
     }
 
     public void sendDatFile() {
@@ -39,68 +65,454 @@ public class Client {
     }
 
     /**
-     * 按照1024KB为一组发送原始数据文件到分布式存储节点
+     * 按照约1024KB(整条记录，CHUNK_SIZE_KB可调)为一组发送原始数据文件到分布式存储节点
+     * 环境变量INGEST_MODE为tcp时使用TCP导入通道，默认使用UDP分片传输
+     * 环境变量REPLICATION为chain时使用链式复制，客户端每块只发送一次
+     * 环境变量CHUNK_CODEC选择数据块的压缩编码(none/deflate/lz/auto)，节点按压缩形式存储
+     * 分发进度记录在清单中(见UploadManifest)，中断后再次分发只发送未确认的副本
      */
     public void sendDatFileInChunks() {
-        try {
-            byte[] fileData = readFileAsBytes(datReader.getFilePath());
-            int chunkSize = 1024 * 1024; // 1024KB
-            int totalChunks = (int) Math.ceil((double) fileData.length / chunkSize);
+        if ("tcp".equalsIgnoreCase(System.getenv("INGEST_MODE"))) {
+            sendDatFileOverTcp();
+            return;
+        }
+        // 数据块是源文件的只读映射，不把整个文件读入内存
+        try (ChunkSource chunks = ChunkSource.fromEnv(Path.of(datReader.getFilePath()))) {
+            int totalChunks = chunks.chunkCount();
+            
+            System.out.println("开始分发数据文件，总大小: " + chunks.size() + " 字节，分为 " + totalChunks + " 块");
+            openManifest(chunks);
+            if (totalChunks > 0) {
+                this.codec = resolveCodec(chunks.chunk(0));
+            }
+            
+            RoutingTable routingTable = new RoutingTable();
+            LongAdder encodedBytes = new LongAdder();
+            long startTime = System.nanoTime();
+            this.placement = PlacementEngine.fromEnv(storageNodes, chunks.chunkSize());
+            System.out.println("存放节点选择方式: " + placement.getMode());
+            
+            boolean chained = chainReplication && chainTargetsFit();
+            try (NetSenderPool senderPool = new NetSenderPool()) {
+                // 每个数据块的压缩、校验和发送在各自的虚拟线程上进行，多个块同时传输；
+                // 每个节点同时传输的块数由发送器池限制，这里限制已取出但尚未发送完的块数(压缩后的块占用堆内存)
+                Semaphore window = new Semaphore(senderPool.getSendersPerNode() * storageNodes.size());
+                try (ExecutorService uploaders = Executors.newVirtualThreadPerTaskExecutor()) {
+                    for (int i = 0; i < totalChunks; i++) {
+                        ByteBuffer chunk = chunks.chunk(i);
+                    
+                        // 沿用清单中的主备节点，或按节点的剩余空间、负载和延迟重新选择
+                        UploadManifest.Entry entry = planChunk(i, chunks.offset(i), chunk);
+                        routingTable.add(i, ZoneMap.of(chunk), entry.primaryNodeId, entry.backupNodeId);
+                        if (entry.isComplete()) {
+                            continue; // 上次已确认
+                        }
+                        
+                        window.acquire();
+                        uploaders.execute(() -> {
+                            try {
+                                uploadChunk(senderPool, chunk, entry, chained, encodedBytes);
+                            } finally {
+                                window.release();
+                            }
+                        });
+                    }
+                } // 关闭时等待所有数据块发送完成
+                senderPool.printStats();
+                placement.printStats();
+            }
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            System.out.printf("全部 %d 块已发送，用时 %.2f 秒，%.1f MB/s%n",
+                              totalChunks, seconds, chunks.size() / 1024.0 / 1024.0 / seconds);
+            printCompression(chunks.size(), encodedBytes.sum());
+            closeManifest(totalChunks);
             
-            System.out.println("开始分发数据文件，总大小: " + fileData.length + " 字节，分为 " + totalChunks + " 块");
+            // 发布路由表，查询客户端据此直接定位持有学号的节点
+            routingTable.save(routingTableFile);
+            System.out.println("路由表已发布: " + routingTableFile.getPath() + " (" + routingTable.size() + " 条)");
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("分发数据文件被中断");
+        } finally {
+            closeQuietly(manifest);
+            closePlacement();
+        }
+    }
+    
+    /**
+     * UDP分片头部中的链式复制目标不超过 ChunkTransfer.MAX_CHAIN_TARGET 字节，
+     * 有节点的 "主机:端口" 超出时整个分发改为由客户端分别发送主、备副本
+     */
+    private boolean chainTargetsFit() {
+        for (StorageNodeInfo node : storageNodes) {
+            String target = node.host + ":" + node.port;
+            if (!ChunkTransfer.fitsChainTarget(target)) {
+                System.err.println("链式复制目标 " + target + " 超过 " + ChunkTransfer.MAX_CHAIN_TARGET +
+                                   " 字节，UDP分发改为由客户端分别发送主、备副本(INGEST_MODE=tcp 时允许255字节)");
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * 打开源文件的分发清单，报告上次已确认的块数
+     */
+    private void openManifest(ChunkSource chunks) throws IOException {
+        File source = new File(datReader.getFilePath());
+        this.manifest = UploadManifest.open(UploadManifest.defaultFile(source.getPath()), source, chunks.chunkSize());
+        int completed = manifest.completedCount();
+        if (completed > 0) {
+            System.out.println("分发清单 " + manifest.getFile().getPath() + " 中已确认 " + completed +
+                               " 块，跳过这些块，只续传未确认的副本");
+        }
+    }
+    
+    /**
+     * 为数据块确定主备节点并记入清单
+     * 清单中已有同样数据(长度和校验和一致)的计划且两个节点仍在列表中时沿用，续传只补发缺少的副本；
+     * 否则由存放引擎重新选择
+     */
+    private UploadManifest.Entry planChunk(int chunkId, long offset, ByteBuffer chunk) {
+        int checksum = ChunkChecksum.of(chunk);
+        UploadManifest.Entry entry = manifest.get(chunkId);
+        if (entry != null && entry.length == chunk.remaining() && entry.checksum == checksum
+            && findNode(entry.primaryNodeId) != null && findNode(entry.backupNodeId) != null) {
+            return entry;
+        }
+        PlacementEngine.Placement target = placement.choose(chunkId);
+        return manifest.plan(chunkId, offset, chunk.remaining(), checksum, target.primary.nodeId, target.backup.nodeId);
+    }
+    
+    /**
+     * 全部块都已确认时删除清单，否则保留以便再次运行时续传
+     */
+    private void closeManifest(int totalChunks) throws IOException {
+        int completed = manifest.completedCount();
+        if (completed >= totalChunks) {
+            manifest.delete();
+        } else {
+            manifest.close();
+            System.err.println((totalChunks - completed) + " 块未全部确认，分发清单保留在 " +
+                               manifest.getFile().getPath() + "，再次分发时续传");
+        }
+    }
+    
+    /**
+     * 停止存放选择的后台状态请求
+     */
+    private void closePlacement() {
+        if (placement != null) {
+            placement.close();
+            placement = null;
+        }
+    }
+
+    private static void closeQuietly(UploadManifest manifest) {
+        if (manifest != null) {
+            try {
+                manifest.close();
+            } catch (IOException e) {
+                System.err.println("关闭分发清单失败: " + e.getMessage());
+            }
+        }
+    }
+    
+    private StorageNodeInfo findNode(int nodeId) {
+        for (StorageNodeInfo node : storageNodes) {
+            if (node.nodeId == nodeId) {
+                return node;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * 压缩数据块并发送到主、备节点中尚未确认的节点，在上传线程上执行
+     * 不压缩时直接从映射的源文件分片发送
+     */
+    private void uploadChunk(NetSenderPool senderPool, ByteBuffer chunk, UploadManifest.Entry entry,
+                             boolean chained, LongAdder encodedBytes) {
+        int chunkId = entry.chunkId;
+        StorageNodeInfo primaryNode = findNode(entry.primaryNodeId);
+        StorageNodeInfo backupNode = findNode(entry.backupNodeId);
+        boolean toPrimary = !entry.isAcked(primaryNode.nodeId);
+        boolean toBackup = !entry.isAcked(backupNode.nodeId);
+        
+        ByteBuffer encoded = codec == ChunkCodec.NONE ? chunk : ByteBuffer.wrap(codec.encode(chunk));
+        encodedBytes.add(encoded.remaining());
+        
+        if (!toPrimary || !toBackup) {
+            // 续传时只补发缺少的副本
+            StorageNodeInfo node = toPrimary ? primaryNode : backupNode;
+            sendChunkToNode(senderPool, chunkId, encoded, node, toPrimary);
+            System.out.println("数据块 " + chunkId + " 已补发到节点 " + node.nodeId);
+        } else if (chained) {
+            // 发送到主节点，由主节点转发到备份节点
+            sendChunkChained(senderPool, chunkId, encoded, primaryNode, backupNode);
+            System.out.println("数据块 " + chunkId + " 已发送到节点 " + primaryNode.nodeId + "(主)，并由其转发到节点 " + backupNode.nodeId + "(备份)");
+        } else {
+            // 发送到主节点
+            sendChunkToNode(senderPool, chunkId, encoded, primaryNode, true);
+            
+            // 发送到备份节点
+            sendChunkToNode(senderPool, chunkId, encoded, backupNode, false);
+            
+            System.out.println("数据块 " + chunkId + " 已发送到节点 " + primaryNode.nodeId + "(主) 和节点 " + backupNode.nodeId + "(备份)");
+        }
+    }
+    
+    /**
+     * 通过TCP导入通道分发数据文件
+     * 与每个节点保持一条持久连接，块数据用transferTo直接从源文件发出，
+     * 区间摘要在映射的源文件上计算，数据块不读入堆内存
+     */
+    private void sendDatFileOverTcp() {
+        Map<Integer, ChunkStream> streams = new HashMap<>();
+        try (ChunkSource chunks = ChunkSource.fromEnv(Path.of(datReader.getFilePath()))) {
+            FileChannel source = chunks.channel();
+            long fileSize = chunks.size();
+            int totalChunks = chunks.chunkCount();
+            
+            System.out.println("开始通过TCP分发数据文件，总大小: " + fileSize + " 字节，分为 " + totalChunks + " 块");
+            openManifest(chunks);
+            if (totalChunks > 0) {
+                this.codec = resolveCodec(chunks.chunk(0));
+            }
+            
+            RoutingTable routingTable = new RoutingTable();
+            UploadManifest.Entry[] entries = new UploadManifest.Entry[totalChunks];
+            boolean[] chained = new boolean[totalChunks];
+            long encodedBytes = 0;
+            // 导入连接上的帧是流水线发送的，没有单块的确认耗时，按节点状态选择
+            this.placement = PlacementEngine.fromEnv(storageNodes, chunks.chunkSize());
+            System.out.println("存放节点选择方式: " + placement.getMode());
             
             for (int i = 0; i < totalChunks; i++) {
-                int start = i * chunkSize;
-                int end = Math.min(start + chunkSize, fileData.length);
-                byte[] chunkData = new byte[end - start];
-                System.arraycopy(fileData, start, chunkData, 0, end - start);
-                
-                // 随机选择主存储节点
-                int primaryNodeIndex = random.nextInt(storageNodes.size());
-                StorageNodeInfo primaryNode = storageNodes.get(primaryNodeIndex);
+                long start = chunks.offset(i);
+                int length = chunks.length(i);
+                ByteBuffer chunk = chunks.chunk(i);
+                UploadManifest.Entry entry = planChunk(i, start, chunk);
+                entries[i] = entry;
+                routingTable.add(i, ZoneMap.of(chunk), entry.primaryNodeId, entry.backupNodeId);
+                if (entry.isComplete()) {
+                    continue; // 上次已确认
+                }
                 
-                // 选择备份节点（下一个节点，循环）
-                int backupNodeIndex = (primaryNodeIndex + 1) % storageNodes.size();
-                StorageNodeInfo backupNode = storageNodes.get(backupNodeIndex);
+                // 不压缩时块数据用transferTo直接从源文件发出
+                ByteBuffer encoded = encodeForTcp(chunk);
+                encodedBytes += encoded != null ? encoded.remaining() : length;
                 
-                // 发送到主节点
-                sendChunkToNode(i, chunkData, primaryNode, true);
+                StorageNodeInfo primaryNode = findNode(entry.primaryNodeId);
+                StorageNodeInfo backupNode = findNode(entry.backupNodeId);
+                boolean toPrimary = !entry.isAcked(primaryNode.nodeId);
+                boolean toBackup = !entry.isAcked(backupNode.nodeId) && backupNode != primaryNode;
                 
-                // 发送到备份节点  
-                sendChunkToNode(i, chunkData, backupNode, false);
-                
-                System.out.println("数据块 " + i + " 已发送到节点 " + primaryNode.nodeId + "(主) 和节点 " + backupNode.nodeId + "(备份)");
+                if (chainReplication && toPrimary && toBackup) {
+                    // 主节点存储后经自己的导入连接转发给备份节点；主节点不可用时直接发给备份节点
+                    String chainTarget = backupNode.host + ":" + backupNode.ingestPort;
+                    chained[i] = sendChunkOverTcp(streams, i, source, start, length, encoded, primaryNode, true, chainTarget);
+                    if (!chained[i]) {
+                        sendChunkOverTcp(streams, i, source, start, length, encoded, backupNode, false, null);
+                    }
+                } else {
+                    // 续传时只补发缺少的副本
+                    if (toPrimary) {
+                        sendChunkOverTcp(streams, i, source, start, length, encoded, primaryNode, true, null);
+                    }
+                    if (toBackup) {
+                        sendChunkOverTcp(streams, i, source, start, length, encoded, backupNode, false, null);
+                    }
+                }
+                recordStored(streams, entries, chained);
             }
+            
+            // 等待所有节点确认剩余的数据块
+            flushStreams(streams);
+            recordStored(streams, entries, chained);
+            
+            // 主节点已存储但转发失败的块，直接补发给备份节点
+            Map<Integer, List<Integer>> replicaFailures = new HashMap<>();
+            for (Map.Entry<Integer, ChunkStream> entry : streams.entrySet()) {
+                replicaFailures.put(entry.getKey(), entry.getValue().takeReplicaFailures());
+            }
+            for (Map.Entry<Integer, List<Integer>> entry : replicaFailures.entrySet()) {
+                for (int chunkId : entry.getValue()) {
+                    StorageNodeInfo backupNode = findNode(entries[chunkId].backupNodeId);
+                    System.err.println("节点 " + entry.getKey() + " 转发数据块 " + chunkId + " 失败，直接发送到备份节点 " +
+                                       backupNode.nodeId);
+                    manifest.ack(chunkId, entry.getKey());
+                    long start = chunks.offset(chunkId);
+                    int length = chunks.length(chunkId);
+                    ByteBuffer encoded = encodeForTcp(chunks.chunk(chunkId));
+                    sendChunkOverTcp(streams, chunkId, source, start, length, encoded, backupNode, false, null);
+                }
+            }
+            flushStreams(streams);
+            recordStored(streams, entries, chained);
+            System.out.println("全部 " + totalChunks + " 块已通过TCP发送");
+            printCompression(fileSize, encodedBytes);
+            closeManifest(totalChunks);
+            
+            routingTable.save(routingTableFile);
+            System.out.println("路由表已发布: " + routingTableFile.getPath() + " (" + routingTable.size() + " 条)");
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            closeQuietly(manifest);
+            closePlacement();
+            for (ChunkStream stream : streams.values()) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    System.err.println("关闭导入连接失败: " + e.getMessage());
+                }
+            }
         }
     }
     
     /**
-     * 读取文件为字节数组
+     * 按环境变量CHUNK_CODEC确定压缩编码，auto时在第一块上比较各编码，
+     * 按SEND_RATE_MBPS(默认64)估计的链路速率选出总耗时最短的
      */
-    private byte[] readFileAsBytes(String filePath) throws IOException {
-        try (FileInputStream fis = new FileInputStream(filePath);
-             ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                baos.write(buffer, 0, bytesRead);
+    private ChunkCodec resolveCodec(ByteBuffer sample) {
+        String value = System.getenv("CHUNK_CODEC");
+        ChunkCodec chosen;
+        if ("auto".equalsIgnoreCase(value)) {
+            double linkRate = Double.parseDouble(System.getenv().getOrDefault("SEND_RATE_MBPS", "64")) * 1024 * 1024;
+            chosen = ChunkCodec.choose(sample, linkRate);
+        } else {
+            chosen = ChunkCodec.parse(value);
+        }
+        System.out.println("数据块压缩编码: " + chosen);
+        return chosen;
+    }
+    
+    private ByteBuffer encodeForTcp(ByteBuffer chunk) {
+        return codec == ChunkCodec.NONE ? null : ByteBuffer.wrap(codec.encode(chunk));
+    }
+    
+    private void printCompression(long rawBytes, long encodedBytes) {
+        if (codec != ChunkCodec.NONE && encodedBytes > 0) {
+            System.out.printf("压缩后 %d 字节，压缩率 %.2f%n", encodedBytes, (double) rawBytes / encodedBytes);
+        }
+    }
+    
+    /**
+     * 把各连接上已确认存储的块记入清单，链式发送的块在主节点确认时备份节点也已存储
+     */
+    private void recordStored(Map<Integer, ChunkStream> streams, UploadManifest.Entry[] entries, boolean[] chained) {
+        for (Map.Entry<Integer, ChunkStream> entry : streams.entrySet()) {
+            int nodeId = entry.getKey();
+            for (int chunkId : entry.getValue().takeStored()) {
+                manifest.ack(chunkId, nodeId);
+                if (chained[chunkId] && nodeId == entries[chunkId].primaryNodeId) {
+                    manifest.ack(chunkId, entries[chunkId].backupNodeId);
+                }
+            }
+        }
+    }
+    
+    /**
+     * 等待所有连接上已发送的块被确认
+     */
+    private void flushStreams(Map<Integer, ChunkStream> streams) {
+        for (Map.Entry<Integer, ChunkStream> entry : streams.entrySet()) {
+            try {
+                entry.getValue().flush();
+            } catch (IOException e) {
+                System.err.println("节点 " + entry.getKey() + " 确认数据块失败: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * 通过节点的持久TCP连接发送一个数据块，连接不存在或已失败时重新建立
+     * @param encoded 压缩后的块数据，null表示不压缩，从源文件直接发送
+     * @param chainTarget 链式复制目标 "主机:导入端口"，null表示不转发
+     * @return 是否已发出
+     */
+    private boolean sendChunkOverTcp(Map<Integer, ChunkStream> streams, int chunkId, FileChannel source,
+                                     long start, int length, ByteBuffer encoded, StorageNodeInfo node,
+                                     boolean isPrimary, String chainTarget) {
+        try {
+            ChunkStream stream = streams.get(node.nodeId);
+            if (stream == null) {
+                stream = new ChunkStream(node.host, node.ingestPort);
+                streams.put(node.nodeId, stream);
             }
-            return baos.toByteArray();
+            // 校验和覆盖节点存储的形式(压缩后的字节)
+            if (encoded == null) {
+                stream.sendChunk(chunkId, source, start, length, isPrimary, chainTarget,
+                                 ChunkChecksum.of(source, start, length));
+            } else {
+                stream.sendChunk(chunkId, encoded, isPrimary, chainTarget, codec, ChunkChecksum.of(encoded));
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("通过TCP发送数据块 " + chunkId + " 到节点 " + node.nodeId + " 失败: " + e.getMessage());
+            ChunkStream failed = streams.remove(node.nodeId);
+            if (failed != null) {
+                try {
+                    failed.close();
+                } catch (IOException closeError) {
+                    System.err.println("关闭导入连接失败: " + closeError.getMessage());
+                }
+            }
+            return false;
+        }
+    }
+    
+    /**
+     * 链式复制发送数据块：只发给主节点，主节点存储后转发给备份节点，备份节点存储完成后才返回
+     * 主节点失败或转发失败时由客户端直接发送到备份节点
+     */
+    private void sendChunkChained(NetSenderPool senderPool, int chunkId, ByteBuffer chunkData,
+                                  StorageNodeInfo primaryNode, StorageNodeInfo backupNode) {
+        if (backupNode == primaryNode) {
+            sendChunkToNode(senderPool, chunkId, chunkData, primaryNode, true);
+            return;
+        }
+        placement.onSendStart(primaryNode);
+        long start = System.nanoTime();
+        boolean sent = false;
+        try {
+            senderPool.sendDataChunk(primaryNode, chunkId, chunkData, true,
+                                     backupNode.host + ":" + backupNode.port, codec);
+            sent = true;
+            manifest.ack(chunkId, primaryNode.nodeId);
+            manifest.ack(chunkId, backupNode.nodeId);
+            return;
+        } catch (ChunkTransfer.ReplicaFailedException e) {
+            sent = true; // 主节点已存储
+            manifest.ack(chunkId, primaryNode.nodeId);
+            System.err.println(e.getMessage() + "，直接发送到节点 " + backupNode.nodeId);
+        } catch (IOException e) {
+            System.err.println("发送数据块到节点 " + primaryNode.nodeId + " 失败: " + e.getMessage());
+        } finally {
+            placement.onSendComplete(primaryNode, System.nanoTime() - start, sent);
         }
+        sendChunkToNode(senderPool, chunkId, chunkData, backupNode, false);
     }
     
     /**
-     * 发送数据块到指定存储节点
+     * 发送(已按codec压缩的)数据块到指定存储节点，确认耗时计入节点的延迟统计
      */
-    private void sendChunkToNode(int chunkId, byte[] chunkData, StorageNodeInfo node, boolean isPrimary) {
+    private void sendChunkToNode(NetSenderPool senderPool, int chunkId, ByteBuffer chunkData,
+                                 StorageNodeInfo node, boolean isPrimary) {
+        placement.onSendStart(node);
+        long start = System.nanoTime();
+        boolean sent = false;
         try {
-            NetSender sender = new NetSender(node.host, node.port);
-            sender.sendDataChunk(chunkId, chunkData, isPrimary);
+            senderPool.sendDataChunk(node, chunkId, chunkData, isPrimary, null, codec);
+            sent = true;
+            manifest.ack(chunkId, node.nodeId);
         } catch (IOException e) {
             System.err.println("发送数据块到节点 " + node.nodeId + " 失败: " + e.getMessage());
+        } finally {
+            placement.onSendComplete(node, System.nanoTime() - start, sent);
         }
     }
 }
@@ -0,0 +1,112 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * 数据块压缩编码基准
+ * 对数据文件按约1MB(整条记录)分块，分别用每种编码压缩和解压，输出压缩率和压缩、解压速度(按原始字节计)，
+ * 用于按数据集选择 CHUNK_CODEC。不指定文件时生成与作业数据相似的测试数据(学号连续，成绩一位小数)。
+ *
+ * 用法: java CodecBenchmark [dat文件] [MB数]
+ */
+public class CodecBenchmark {
+    private static final int CHUNK_SIZE = ChunkSource.DEFAULT_CHUNK_SIZE;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        File datFile;
+        if (args.length > 0) {
+            datFile = new File(args[0]);
+        } else {
+            datFile = File.createTempFile("codec-bench", ".dat");
+            datFile.deleteOnExit();
+            writeData(datFile, args.length > 1 ? Integer.parseInt(args[1]) : 64);
+        }
+
+        ByteBuffer[] chunks = readChunks(datFile);
+        long rawBytes = 0;
+        for (ByteBuffer chunk : chunks) {
+            rawBytes += chunk.remaining();
+        }
+        System.out.println("数据: " + datFile.getName() + "，" + chunks.length + " 块，" + rawBytes + " 字节");
+
+        for (ChunkCodec codec : ChunkCodec.values()) {
+            run(codec, chunks, rawBytes);
+        }
+    }
+
+    private static void writeData(File file, int megabytes) throws IOException {
+        int records = megabytes * 1024 * 1024 / StudentRecord.SIZE;
+        Random random = new Random(42);
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            for (int i = 0; i < records; i++) {
+                dos.writeInt(2_000_000 + i);
+                for (int s = 0; s < 4; s++) {
+                    dos.writeFloat(random.nextInt(1001) / 10f);
+                }
+            }
+        }
+    }
+
+    private static ByteBuffer[] readChunks(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            int count = (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            ByteBuffer[] chunks = new ByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long start = (long) i * CHUNK_SIZE;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, size - start));
+            }
+            return chunks;
+        }
+    }
+
+    private static void run(ChunkCodec codec, ByteBuffer[] chunks, long rawBytes) throws IOException {
+        long bestEncode = Long.MAX_VALUE;
+        long bestDecode = Long.MAX_VALUE;
+        long encodedBytes = 0;
+        // 第一轮包含JIT预热，各取最快一轮
+        for (int round = 0; round < ROUNDS; round++) {
+            byte[][] encoded = new byte[chunks.length][];
+            long start = System.nanoTime();
+            for (int i = 0; i < chunks.length; i++) {
+                encoded[i] = codec.encode(chunks[i]);
+            }
+            bestEncode = Math.min(bestEncode, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < chunks.length; i++) {
+                byte[] decoded = codec.decode(ByteBuffer.wrap(encoded[i]));
+                if (decoded.length != chunks[i].remaining()) {
+                    throw new IOException(codec + " 解压后长度不符，块 " + i);
+                }
+            }
+            bestDecode = Math.min(bestDecode, System.nanoTime() - start);
+
+            encodedBytes = 0;
+            for (byte[] e : encoded) {
+                encodedBytes += e.length;
+            }
+        }
+        verify(codec, chunks);
+
+        System.out.printf("%-8s 压缩率 %5.2f，压缩 %7.1f MB/s，解压 %7.1f MB/s%n",
+            codec, (double) rawBytes / encodedBytes,
+            rawBytes / 1e6 / (bestEncode / 1e9), rawBytes / 1e6 / (bestDecode / 1e9));
+    }
+
+    /**
+     * 逐字节比对第一块的往返结果
+     */
+    private static void verify(ChunkCodec codec, ByteBuffer[] chunks) throws IOException {
+        if (chunks.length == 0) {
+            return;
+        }
+        ByteBuffer decoded = ByteBuffer.wrap(codec.decode(ByteBuffer.wrap(codec.encode(chunks[0]))));
+        if (!decoded.equals(chunks[0])) {
+            throw new IOException(codec + " 往返结果与原始数据不一致");
+        }
+    }
+}
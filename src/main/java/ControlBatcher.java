@@ -0,0 +1,172 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 控制消息合并发送
+ * 心跳、确认、成员变化、负载报告等文本控制消息先按目的地址排队，在一个短的刷新窗口内
+ * 发往同一地址的消息用换行连接成一个数据报发送；排队字节数接近一个数据报的上限时立即发送。
+ * 只含一条消息的数据报与原来的格式相同，接收方用 split 拆分后逐条处理。
+ *
+ * 环境变量: CONTROL_FLUSH_MS 刷新窗口(毫秒，默认20，0为不等待)
+ */
+public class ControlBatcher implements Closeable {
+    public static final char SEPARATOR = '\n';
+    public static final int MAX_DATAGRAM = 1400;          // 不超过以太网MTU，避免IP分片
+    public static final int RECEIVE_BUFFER_SIZE = 65507;  // 单条消息可能超过MAX_DATAGRAM(如大集群的成员列表)
+
+    /**
+     * 实际发送数据报的方式，由使用方提供(DatagramSocket或DatagramChannel)
+     */
+    public interface Transport {
+        void send(byte[] datagram, InetSocketAddress target) throws IOException;
+    }
+
+    private static class Pending {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(MAX_DATAGRAM);
+        int messages;
+        boolean scheduled;
+    }
+
+    private final Transport transport;
+    private final long flushMillis;
+    private final Map<InetSocketAddress, Pending> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong datagramsSent = new AtomicLong();
+
+    public ControlBatcher(Transport transport, long flushMillis) {
+        this.transport = transport;
+        this.flushMillis = flushMillis;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ControlBatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 按环境变量 CONTROL_FLUSH_MS 创建
+     */
+    public static ControlBatcher fromEnv(Transport transport) {
+        long flushMillis = Long.parseLong(System.getenv().getOrDefault("CONTROL_FLUSH_MS", "20"));
+        return new ControlBatcher(transport, flushMillis);
+    }
+
+    /**
+     * 拆分收到的数据报，返回其中的各条消息
+     */
+    public static List<String> split(String payload) {
+        List<String> messages = new ArrayList<>();
+        int start = 0;
+        while (start < payload.length()) {
+            int end = payload.indexOf(SEPARATOR, start);
+            if (end < 0) {
+                end = payload.length();
+            }
+            if (end > start) {
+                messages.add(payload.substring(start, end));
+            }
+            start = end + 1;
+        }
+        return messages;
+    }
+
+    /**
+     * 将消息排入发往target的队列，在刷新窗口结束时与同一目的地的其他消息一起发送
+     */
+    public void send(String message, InetSocketAddress target) {
+        byte[] data = message.getBytes(StandardCharsets.UTF_8);
+        Pending queue = pending.computeIfAbsent(target, t -> new Pending());
+        synchronized (queue) {
+            // 加入后会超过上限时先发出已排队的消息
+            if (queue.messages > 0 && queue.buffer.size() + 1 + data.length > MAX_DATAGRAM) {
+                flushLocked(target, queue);
+            }
+            if (queue.messages > 0) {
+                queue.buffer.write(SEPARATOR);
+            }
+            queue.buffer.write(data, 0, data.length);
+            queue.messages++;
+
+            if (flushMillis <= 0 || queue.buffer.size() >= MAX_DATAGRAM) {
+                flushLocked(target, queue);
+            } else if (!queue.scheduled) {
+                queue.scheduled = true;
+                timer.schedule(() -> flush(target), flushMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * 立即发送发往target的排队消息
+     */
+    public void flush(InetSocketAddress target) {
+        Pending queue = pending.get(target);
+        if (queue == null) {
+            return;
+        }
+        synchronized (queue) {
+            queue.scheduled = false;
+            flushLocked(target, queue);
+        }
+    }
+
+    /**
+     * 立即发送所有排队消息
+     */
+    public void flushAll() {
+        for (InetSocketAddress target : pending.keySet()) {
+            flush(target);
+        }
+    }
+
+    private void flushLocked(InetSocketAddress target, Pending queue) {
+        if (queue.messages == 0) {
+            return;
+        }
+        byte[] datagram = queue.buffer.toByteArray();
+        int messages = queue.messages;
+        queue.buffer.reset();
+        queue.messages = 0;
+        try {
+            transport.send(datagram, target);
+            messagesSent.addAndGet(messages);
+            datagramsSent.incrementAndGet();
+        } catch (IOException e) {
+            System.err.println("发送控制消息失败: " + e.getMessage());
+        }
+    }
+
+    public long getMessagesSent() {
+        return messagesSent.get();
+    }
+
+    public long getDatagramsSent() {
+        return datagramsSent.get();
+    }
+
+    @Override
+    public String toString() {
+        return "控制消息 " + messagesSent.get() + " 条，数据报 " + datagramsSent.get() + " 个";
+    }
+
+    /**
+     * 发出所有排队消息后停止定时器
+     */
+    @Override
+    public void close() {
+        flushAll();
+        timer.shutdownNow();
+    }
+}
@@ -139,7 +139,7 @@ public class DistributedSystemMain {
         System.out.println();
         
         System.out.println("=== 功能特性 ===");
-        System.out.println("✓ 数据按1024KB分块存储");
+        System.out.println("✓ 数据按约1024KB(整条记录)分块存储");
         System.out.println("✓ 随机分配主存储节点");
         System.out.println("✓ 自动复制到备份节点");
         System.out.println("✓ 维护数据块索引");
@@ -0,0 +1,181 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 基于Selector的单线程事件循环
+ * 一个线程同时等待多个非阻塞通道的就绪事件，并执行定时任务和其它线程投递的任务。
+ * 处理器和定时任务都在循环线程中执行，不能阻塞；磁盘读写等阻塞操作应交给工作线程池，
+ * 完成后再通过 {@link #execute(Runnable)} 回到循环线程修改只属于循环线程的状态。
+ */
+public class EventLoop implements Closeable {
+
+    /**
+     * 通道就绪处理器
+     */
+    public interface Handler {
+        void ready(SelectionKey key) throws IOException;
+    }
+
+    /**
+     * 周期性定时任务，只由循环线程访问
+     */
+    private static class Timer implements Comparable<Timer> {
+        final Runnable task;
+        final long periodNanos;
+        long dueNanos;
+
+        Timer(Runnable task, long periodNanos) {
+            this.task = task;
+            this.periodNanos = periodNanos;
+            this.dueNanos = System.nanoTime() + periodNanos;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            return Long.compare(dueNanos - other.dueNanos, 0);
+        }
+    }
+
+    private final String name;
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    private Thread thread;
+    private volatile boolean running = true;
+
+    public EventLoop(String name) throws IOException {
+        this.name = name;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * 注册通道，通道会被设置为非阻塞模式
+     * 只能在 start() 之前或在循环线程中调用
+     */
+    public SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws IOException {
+        channel.configureBlocking(false);
+        return channel.register(selector, ops, handler);
+    }
+
+    /**
+     * 添加周期性定时任务，首次在一个周期后执行
+     * 只能在 start() 之前或在循环线程中调用
+     */
+    public void schedule(Runnable task, long periodMillis) {
+        timers.add(new Timer(task, periodMillis * 1_000_000L));
+    }
+
+    /**
+     * 投递任务到循环线程执行，可在任意线程调用
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    public boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("事件循环已启动");
+        }
+        thread = new Thread(this::run, name);
+        thread.start();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                if (tasks.isEmpty()) {
+                    selector.select(nextTimeoutMillis());
+                } else {
+                    selector.selectNow();
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (running) {
+                    System.err.println("事件循环等待失败: " + e.getMessage());
+                }
+                break;
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                try {
+                    ((Handler) key.attachment()).ready(key);
+                } catch (CancelledKeyException e) {
+                    // 通道已关闭
+                } catch (IOException | RuntimeException e) {
+                    if (running) {
+                        System.err.println("事件处理失败: " + e.getMessage());
+                    }
+                }
+            }
+
+            runTasks();
+            runTimers();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println("事件循环任务失败: " + e.getMessage());
+            }
+        }
+    }
+
+    private void runTimers() {
+        long now = System.nanoTime();
+        while (!timers.isEmpty() && timers.peek().dueNanos - now <= 0) {
+            Timer timer = timers.poll();
+            try {
+                timer.task.run();
+            } catch (RuntimeException e) {
+                System.err.println("定时任务失败: " + e.getMessage());
+            }
+            timer.dueNanos = now + timer.periodNanos;
+            timers.add(timer);
+        }
+    }
+
+    /**
+     * 距下一个定时任务的毫秒数，0表示无限等待
+     */
+    private long nextTimeoutMillis() {
+        if (timers.isEmpty()) {
+            return 0;
+        }
+        long waitNanos = timers.peek().dueNanos - System.nanoTime();
+        return Math.max(1, (waitNanos + 999_999) / 1_000_000);
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        if (thread != null && !inLoop()) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        selector.close();
+    }
+}
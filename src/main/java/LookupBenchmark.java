@@ -0,0 +1,127 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 存储节点记录查找的微基准
+ * 对比旧的"复制数据块 + 解析为记录列表"查找方式、内存映射就地线性比对学号和有序块上的二分查找，
+ * 输出每次查找的耗时和分配字节数。
+ *
+ * 用法: java LookupBenchmark [块数] [查找次数]
+ */
+public class LookupBenchmark {
+    private static final int RECORDS_PER_CHUNK = 1024 * 1024 / StudentRecord.SIZE;
+
+    private interface Lookup {
+        StudentRecord find(long pointer, int size, int studentId) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int chunks = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        File datFile = Files.createTempFile("lookup-bench", ".dat").toFile();
+        datFile.deleteOnExit();
+        int chunkSize = RECORDS_PER_CHUNK * StudentRecord.SIZE;
+        writeData(datFile, chunks, chunkSize);
+
+        int totalRecords = chunks * RECORDS_PER_CHUNK;
+        Random random = new Random(42);
+        int[] targets = new int[lookups];
+        for (int i = 0; i < lookups; i++) {
+            targets[i] = random.nextInt(totalRecords);
+        }
+
+        System.out.println("数据: " + chunks + " 块 x " + chunkSize + " 字节, 查找次数: " + lookups);
+
+        try (RandomAccessFile raf = new RandomAccessFile(datFile, "r");
+             MappedDataFile mapped = new MappedDataFile(datFile)) {
+            Lookup copying = (pointer, size, studentId) -> findByCopy(raf, pointer, size, studentId);
+            Lookup zeroCopy = (pointer, size, studentId) -> mapped.find(pointer, size, studentId, false);
+            Lookup binary = (pointer, size, studentId) -> mapped.find(pointer, size, studentId, true);
+
+            // 预热
+            run(copying, targets, chunkSize);
+            run(zeroCopy, targets, chunkSize);
+            run(binary, targets, chunkSize);
+
+            report("复制+解析", copying, targets, chunkSize);
+            report("内存映射就地查找", zeroCopy, targets, chunkSize);
+            report("有序块二分查找", binary, targets, chunkSize);
+        }
+    }
+
+    /**
+     * 生成按学号递增的测试数据
+     */
+    private static void writeData(File file, int chunks, int chunkSize) throws IOException {
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            int studentId = 0;
+            for (int c = 0; c < chunks; c++) {
+                for (int r = 0; r < RECORDS_PER_CHUNK; r++) {
+                    dos.writeInt(studentId++);
+                    dos.writeFloat(60f);
+                    dos.writeFloat(70f);
+                    dos.writeFloat(80f);
+                    dos.writeFloat(90f);
+                }
+            }
+        }
+    }
+
+    private static long run(Lookup lookup, int[] targets, int chunkSize) throws IOException {
+        long found = 0;
+        for (int target : targets) {
+            // 与zone map一致，只查覆盖目标学号的那一块
+            long pointer = (long) (target / RECORDS_PER_CHUNK) * chunkSize;
+            if (lookup.find(pointer, chunkSize, target) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private static void report(String name, Lookup lookup, int[] targets, int chunkSize) throws IOException {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        long found = run(lookup, targets, chunkSize);
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        System.out.printf("%-12s 命中: %d, 平均耗时: %.1f us/次, 平均分配: %d 字节/次%n",
+            name, found, elapsed / 1e3 / targets.length, allocated / targets.length);
+    }
+
+    /**
+     * 旧的查找方式：把整块读入byte[]，解析为记录列表后逐条比较
+     */
+    private static StudentRecord findByCopy(RandomAccessFile raf, long pointer, int size, int studentId)
+            throws IOException {
+        raf.seek(pointer);
+        byte[] chunkData = new byte[size];
+        raf.readFully(chunkData);
+
+        List<StudentRecord> records = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(chunkData);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        for (int i = 0; i < size / StudentRecord.SIZE; i++) {
+            records.add(new StudentRecord(buffer.getInt(), buffer.getFloat(), buffer.getFloat(),
+                                          buffer.getFloat(), buffer.getFloat()));
+        }
+        for (StudentRecord record : records) {
+            if (record.studentId == studentId) {
+                return record;
+            }
+        }
+        return null;
+    }
+}
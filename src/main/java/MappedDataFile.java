@@ -0,0 +1,106 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * 数据文件(.dat)的只读内存映射
+ * 文件按1GB窗口分段映射，每个窗口额外向后多映射一段重叠区，
+ * 因此不超过重叠区大小的数据块总能完整落在起始位置所在的窗口内，超过2GB的文件也能映射。
+ * 文件增长后，访问超出已映射范围的位置时按需重新映射对应窗口。
+ * 没有用FFM的MemorySegment映射：读取路径上的RecordSearch、ZoneMap、ChunkChecksum和ChunkCodec都以ByteBuffer为参数，
+ * 用MemorySegment也要在每处转换回ByteBuffer，分段映射已能覆盖超过2GB的文件。
+ */
+public class MappedDataFile implements Closeable {
+    private static final long WINDOW_SIZE = 1L << 30;        // 1GB
+    public static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024; // 窗口重叠区，单个数据块的上限
+
+    private final FileChannel channel;
+    private volatile MappedByteBuffer[] windows = new MappedByteBuffer[0];
+
+    public MappedDataFile(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+    /**
+     * 获取包含 [pointer, pointer + size) 的窗口
+     * 数据在窗口内的起始位置为 {@link #offsetInWindow(long)}
+     */
+    public ByteBuffer window(long pointer, int size) throws IOException {
+        if (size > MAX_CHUNK_SIZE) {
+            throw new IOException("数据块过大，无法映射: " + size + " 字节");
+        }
+        int index = (int) (pointer / WINDOW_SIZE);
+        long end = offsetInWindow(pointer) + (long) size;
+
+        MappedByteBuffer[] current = windows;
+        if (index < current.length && current[index] != null && current[index].capacity() >= end) {
+            return current[index];
+        }
+        return remap(index, end);
+    }
+
+    public static int offsetInWindow(long pointer) {
+        return (int) (pointer % WINDOW_SIZE);
+    }
+
+    /**
+     * 重新映射窗口，使其至少覆盖到窗口内的end位置
+     */
+    private synchronized ByteBuffer remap(int index, long end) throws IOException {
+        MappedByteBuffer[] current = windows;
+        if (index < current.length && current[index] != null && current[index].capacity() >= end) {
+            return current[index];
+        }
+
+        long start = index * WINDOW_SIZE;
+        long length = Math.min(WINDOW_SIZE + MAX_CHUNK_SIZE, channel.size() - start);
+        if (length < end) {
+            throw new IOException("数据块超出文件末尾: " + (start + end));
+        }
+
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        MappedByteBuffer[] updated = Arrays.copyOf(current, Math.max(current.length, index + 1));
+        updated[index] = mapped;
+        windows = updated;
+        return mapped;
+    }
+
+    /**
+     * 在数据块中查找学号，只为命中的记录创建对象
+     * @param sorted 块内记录是否按学号升序，有序时使用二分查找
+     * @return 命中的记录，未找到返回null
+     */
+    public StudentRecord find(long pointer, int size, int studentId, boolean sorted) throws IOException {
+        ByteBuffer window = window(pointer, size);
+        int offset = offsetInWindow(pointer);
+        int hit = RecordSearch.search(window, offset, size / StudentRecord.SIZE, studentId, sorted);
+        return hit >= 0 ? StudentRecord.readFrom(window, hit) : null;
+    }
+
+    /**
+     * 数据块内容的只读视图
+     */
+    public ByteBuffer chunk(long pointer, int size) throws IOException {
+        int offset = offsetInWindow(pointer);
+        return window(pointer, size).slice(offset, size);
+    }
+
+    /**
+     * 单独映射一个数据块，不重新映射窗口
+     * 用于导入时读回刚追加在文件末尾的块：窗口只映射到当时的文件末尾，每追加一块都重新映射窗口会
+     * 反复建立1GB以上的映射，被替换的映射要等GC才解除
+     */
+    public ByteBuffer mapChunk(long pointer, int size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, pointer, size);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
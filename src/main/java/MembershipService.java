@@ -1,5 +1,6 @@
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
@@ -17,6 +18,9 @@ public class MembershipService {
     private DatagramSocket socket;
     private Map<Integer, Long> lastHeartbeat;
     private ScheduledExecutorService scheduler;
+    private ControlBatcher batcher;                 // 发往同一节点的控制消息合并成一个数据报
+    private volatile InetSocketAddress leaderAddress; // 已加入集群时只向Leader发送心跳
+    private Map<Integer, String> loadReports;       // 存储节点随心跳上报的负载
     private boolean running = true;
     
     private static final long HEARTBEAT_INTERVAL = 5000; // 5秒
@@ -60,7 +64,10 @@ public class MembershipService {
         this.isLeader = isLeader;
         this.membershipList = ConcurrentHashMap.newKeySet();
         this.lastHeartbeat = new ConcurrentHashMap<>();
+        this.loadReports = new ConcurrentHashMap<>();
         this.socket = new DatagramSocket(port);
+        this.batcher = ControlBatcher.fromEnv(
+            (data, target) -> socket.send(new DatagramPacket(data, data.length, target)));
         this.scheduler = Executors.newScheduledThreadPool(3);
         
         // 将自己加入成员列表
@@ -95,18 +102,20 @@ public class MembershipService {
     }
     
     /**
-     * 处理接收到的消息
+     * 处理接收到的消息，一个数据报中可能合并了多条消息
      */
     private void handleMessages() {
-        byte[] buffer = new byte[1024];
+        byte[] buffer = new byte[ControlBatcher.RECEIVE_BUFFER_SIZE];
         
         while (running) {
             try {
                 DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
                 socket.receive(packet);
                 
-                String message = new String(packet.getData(), 0, packet.getLength());
-                processMessage(message, packet.getAddress(), packet.getPort());
+                String payload = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+                for (String message : ControlBatcher.split(payload)) {
+                    processMessage(message, packet.getAddress(), packet.getPort());
+                }
             } catch (IOException e) {
                 if (running) {
                     e.printStackTrace();
@@ -140,6 +149,18 @@ public class MembershipService {
             case "MEMBERSHIP_RESPONSE":
                 handleMembershipResponse(parts);
                 break;
+            case "MEMBER_UP":
+                handleMemberUp(parts);
+                break;
+            case "MEMBER_DOWN":
+                handleMemberDown(parts);
+                break;
+            case "ALIVE":
+                handleAlive(parts);
+                break;
+            case "LOAD":
+                handleLoadReport(message, parts);
+                break;
         }
     }
     
@@ -163,8 +184,8 @@ public class MembershipService {
             // 发送当前成员列表给新节点
             sendMembershipList(senderIP, senderPort);
             
-            // 通知其他节点
-            broadcastMembershipUpdate();
+            // 只把新节点通知其他节点，不再向每个节点重发完整列表
+            broadcast("MEMBER_UP:" + newNodeId + ":" + ip + ":" + port, newNodeId);
         } catch (NumberFormatException e) {
             System.err.println("无效的加入请求: " + String.join(":", parts));
         }
@@ -200,11 +221,12 @@ public class MembershipService {
             int leavingNodeId = Integer.parseInt(parts[1]);
             membershipList.removeIf(node -> node.nodeId == leavingNodeId);
             lastHeartbeat.remove(leavingNodeId);
+            loadReports.remove(leavingNodeId);
             
             System.out.println("节点 " + leavingNodeId + " 主动离开集群");
             
             if (isLeader) {
-                broadcastMembershipUpdate();
+                broadcast("MEMBER_DOWN:" + leavingNodeId, leavingNodeId);
             }
         } catch (NumberFormatException e) {
             System.err.println("无效的离开请求: " + String.join(":", parts));
@@ -245,19 +267,105 @@ public class MembershipService {
         System.out.println("收到成员列表更新，当前成员数: " + membershipList.size());
     }
     
+    /**
+     * 处理新成员通知: MEMBER_UP:节点ID:IP:端口
+     */
+    private void handleMemberUp(String[] parts) {
+        if (parts.length < 4) return;
+        try {
+            int id = Integer.parseInt(parts[1]);
+            membershipList.add(new NodeInfo(id, parts[2], Integer.parseInt(parts[3])));
+            lastHeartbeat.put(id, System.currentTimeMillis());
+            System.out.println("节点 " + id + " 加入集群，当前成员数: " + membershipList.size());
+        } catch (NumberFormatException e) {
+            System.err.println("无效的成员通知: " + String.join(":", parts));
+        }
+    }
+    
+    /**
+     * 处理成员移除通知: MEMBER_DOWN:节点ID
+     */
+    private void handleMemberDown(String[] parts) {
+        try {
+            int id = Integer.parseInt(parts[1]);
+            if (id == nodeId) return;
+            membershipList.removeIf(node -> node.nodeId == id);
+            lastHeartbeat.remove(id);
+            System.out.println("节点 " + id + " 已从集群中移除，当前成员数: " + membershipList.size());
+        } catch (NumberFormatException e) {
+            System.err.println("无效的成员通知: " + String.join(":", parts));
+        }
+    }
+    
+    /**
+     * 处理Leader转达的存活列表: ALIVE:节点ID,节点ID,...
+     * 成员只向Leader发送心跳，其他成员的存活情况由Leader随心跳一起转达
+     */
+    private void handleAlive(String[] parts) {
+        long now = System.currentTimeMillis();
+        for (String id : parts[1].split(",")) {
+            try {
+                int aliveId = Integer.parseInt(id);
+                if (aliveId != nodeId && membershipList.stream().anyMatch(node -> node.nodeId == aliveId)) {
+                    lastHeartbeat.put(aliveId, now);
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("无效的存活列表: " + parts[1]);
+                return;
+            }
+        }
+    }
+    
+    /**
+     * 处理负载报告: LOAD:节点ID:字段...，原样保存用于显示
+     */
+    private void handleLoadReport(String message, String[] parts) {
+        try {
+            int senderId = Integer.parseInt(parts[1]);
+            loadReports.put(senderId, message.substring(message.indexOf(':', 5) + 1));
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            System.err.println("无效的负载报告: " + message);
+        }
+    }
+    
     /**
      * 发送心跳
+     * Leader向每个成员发送心跳和存活列表(同一个数据报)；已加入集群的成员只向Leader发送心跳，
+     * 每轮的数据报数随成员数线性增长，而不是每对成员之间都发送。
      */
     private void sendHeartbeats() {
         String heartbeat = "HEARTBEAT:" + nodeId + ":localhost:" + port;
         
+        if (!isLeader && leaderAddress != null) {
+            batcher.send(heartbeat, leaderAddress);
+            return;
+        }
+        
+        String alive = isLeader ? aliveList() : null;
         for (NodeInfo member : membershipList) {
             if (member.nodeId != nodeId) {
                 sendMessage(heartbeat, member.ip, member.port);
+                if (alive != null) {
+                    sendMessage(alive, member.ip, member.port);
+                }
             }
         }
     }
     
+    /**
+     * 最近一个超时周期内有心跳的成员
+     */
+    private String aliveList() {
+        long currentTime = System.currentTimeMillis();
+        StringBuilder sb = new StringBuilder("ALIVE:").append(nodeId);
+        for (Map.Entry<Integer, Long> entry : lastHeartbeat.entrySet()) {
+            if (entry.getKey() != nodeId && currentTime - entry.getValue() <= FAILURE_TIMEOUT) {
+                sb.append(",").append(entry.getKey());
+            }
+        }
+        return sb.toString();
+    }
+    
     /**
      * 检测故障节点
      */
@@ -276,15 +384,13 @@ public class MembershipService {
             }
         }
         
-        // 移除故障节点
+        // 移除故障节点，每个移除通知都排入发往各成员的队列，多个故障合并在一个数据报中
         for (int failedNodeId : failedNodes) {
             membershipList.removeIf(node -> node.nodeId == failedNodeId);
             lastHeartbeat.remove(failedNodeId);
+            loadReports.remove(failedNodeId);
             System.out.println("检测到节点 " + failedNodeId + " 故障，已从集群中移除");
-        }
-        
-        if (!failedNodes.isEmpty()) {
-            broadcastMembershipUpdate();
+            broadcast("MEMBER_DOWN:" + failedNodeId, failedNodeId);
         }
     }
     
@@ -304,28 +410,26 @@ public class MembershipService {
     }
     
     /**
-     * 广播成员列表更新
+     * 向除自己和excludeId外的所有成员广播消息
      */
-    private void broadcastMembershipUpdate() {
+    private void broadcast(String message, int excludeId) {
         for (NodeInfo member : membershipList) {
-            if (member.nodeId != nodeId) {
-                sendMembershipList(null, member.port);
+            if (member.nodeId != nodeId && member.nodeId != excludeId) {
+                sendMessage(message, member.ip, member.port);
             }
         }
     }
     
     /**
-     * 发送消息
+     * 发送消息，经ControlBatcher与发往同一节点的其他消息合并
      */
     private void sendMessage(String message, String ip, int port) {
-        try {
-            byte[] data = message.getBytes();
-            InetAddress address = InetAddress.getByName(ip);
-            DatagramPacket packet = new DatagramPacket(data, data.length, address, port);
-            socket.send(packet);
-        } catch (IOException e) {
-            System.err.println("发送消息失败: " + e.getMessage());
+        InetSocketAddress target = new InetSocketAddress(ip, port);
+        if (target.isUnresolved()) {
+            System.err.println("发送消息失败: 无法解析地址 " + ip);
+            return;
         }
+        batcher.send(message, target);
     }
     
     /**
@@ -340,8 +444,13 @@ public class MembershipService {
         String joinRequest = "JOIN:" + nodeId + ":" + port;
         sendMessage(joinRequest, leaderIP, leaderPort);
         
-        // 请求成员列表
+        // 请求成员列表，与加入请求在同一个数据报中
         sendMessage("MEMBERSHIP_REQUEST", leaderIP, leaderPort);
+        
+        InetSocketAddress leader = new InetSocketAddress(leaderIP, leaderPort);
+        if (!leader.isUnresolved()) {
+            leaderAddress = leader;
+        }
     }
     
     /**
@@ -349,6 +458,7 @@ public class MembershipService {
      */
     public void leaveCluster() {
         String leaveMessage = "LEAVE:" + nodeId;
+        leaderAddress = null;
         
         for (NodeInfo member : membershipList) {
             if (member.nodeId != nodeId) {
@@ -369,8 +479,11 @@ public class MembershipService {
             String status = lastSeen != null ? 
                 "活跃 (上次心跳: " + (System.currentTimeMillis() - lastSeen) + "ms前)" : "未知";
             
-            System.out.println("  " + member + " - " + status);
+            String load = loadReports.get(member.nodeId);
+            
+            System.out.println("  " + member + " - " + status + (load != null ? "，负载: " + load : ""));
         }
+        System.out.println("已发送" + batcher);
     }
     
     /**
@@ -427,6 +540,10 @@ public class MembershipService {
             scheduler.shutdown();
         }
         
+        if (batcher != null) {
+            batcher.close();
+        }
+        
         if (socket != null) {
             socket.close();
         }
@@ -1,104 +1,204 @@
-import java.net.*;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * UDP接收器
+ * 构造时绑定一次端口并一直保持，调用之间到达的报文留在socket接收缓冲区中，不会丢失。
+ * 报文接收到预先分配的直接缓冲区池中，不为每个报文分配byte[]：
+ * {@link #start(Consumer)} 在后台线程中循环接收并把报文交给回调，回调用完后必须调用 {@link Packet#release()}
+ * 归还缓冲区(可以交给其它线程处理后再归还)。缓冲区全部被占用时接收线程等待归还，报文暂存在内核缓冲区。
+ */
+public class NetReceiver implements Closeable {
+    public static final int DEFAULT_BUFFER_SIZE = 65536; // 可容纳任意UDP报文
+    public static final int DEFAULT_POOL_SIZE = 64;
+    private static final int SOCKET_RECEIVE_BUFFER = 4 * 1024 * 1024;
 
-public class NetReceiver {
     private int port;
-    NetReceiver(int listeningPort) {
-        port = listeningPort;
+    private final DatagramChannel channel;
+    private final BlockingQueue<ByteBuffer> freeBuffers;
+    private Thread receiveThread;
+    private volatile boolean running = true;
+
+    /**
+     * 收到的报文，data的position到limit为报文内容
+     */
+    public class Packet {
+        public final ByteBuffer data;
+        public final SocketAddress sender;
+        private boolean released = false;
+
+        Packet(ByteBuffer data, SocketAddress sender) {
+            this.data = data;
+            this.sender = sender;
+        }
+
+        /**
+         * 归还缓冲区，之后不能再访问data；重复调用无效
+         */
+        public synchronized void release() {
+            if (!released) {
+                released = true;
+                freeBuffers.offer(data);
+            }
+        }
     }
 
-private List<StudentRecord> parseRecords(DatagramPacket packet) {
-    List<StudentRecord> records = new ArrayList<>();
-    byte[] receivedData = packet.getData();
-    int actualLength = packet.getLength();  // 实际数据长度
-    
-    // 每条记录大小：int(4字节) + float(4字节) * 4 = 20字节
-    int recordSize = 20;  // 4 + 4 * 4
-    
-    if (actualLength % recordSize != 0) {
-        System.err.println("警告: 数据长度(" + actualLength + 
-                          ")不是记录大小的整数倍(" + recordSize + ")");
+    NetReceiver(int listeningPort) throws IOException {
+        this(listeningPort, DEFAULT_BUFFER_SIZE, DEFAULT_POOL_SIZE);
     }
-    
-    // 使用ByteBuffer解析，设置字节序
-    ByteBuffer buffer = ByteBuffer.wrap(receivedData, 0, actualLength);
-    buffer.order(ByteOrder.BIG_ENDIAN);  // 或 LITTLE_ENDIAN，需与发送方一致
-    
-    int recordCount = actualLength / recordSize;
-    
-    for (int i = 0; i < recordCount; i++) {
-        try {
-            int studentId = buffer.getInt();               // 4字节
-            float chineseScore = buffer.getFloat();        // 4字节
-            float mathScore = buffer.getFloat();           // 4字节
-            float englishScore = buffer.getFloat();        // 4字节
-            float comprehensiveScore = buffer.getFloat();  // 4字节
-            
-            StudentRecord record = new StudentRecord(
-                studentId, chineseScore, mathScore, 
-                englishScore, comprehensiveScore
-            );
-            records.add(record);
-            
-        } catch (BufferUnderflowException e) {
-            System.err.println("解析第 " + i + " 条记录时数据不足");
-            break;
+
+    NetReceiver(int listeningPort, int bufferSize, int poolSize) throws IOException {
+        port = listeningPort;
+        channel = DatagramChannel.open();
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_RECEIVE_BUFFER);
+        channel.bind(new InetSocketAddress(port));
+        freeBuffers = new ArrayBlockingQueue<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            freeBuffers.add(ByteBuffer.allocateDirect(bufferSize));
         }
     }
-    
-    return records;
-}
 
-    public List<StudentRecord> listen() {
-        try (DatagramSocket socket = new DatagramSocket(port)) {
-            // 准备接收数据
-            byte[] buffer = new byte[1024];
-            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-            
-            // 接收数据（阻塞方法）
-            socket.receive(packet);
-            return parseRecords(packet);
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * 启动后台接收线程，每个报文交给handler处理
+     * handler负责调用 Packet.release()；handler抛出异常时由接收线程归还缓冲区
+     */
+    public synchronized void start(Consumer<Packet> handler) {
+        if (receiveThread != null) {
+            throw new IllegalStateException("接收线程已启动");
         }
-        return new ArrayList<>();
+        receiveThread = new Thread(() -> {
+            while (running) {
+                Packet packet;
+                try {
+                    packet = receive();
+                } catch (InterruptedException e) {
+                    break;
+                } catch (IOException e) {
+                    if (running) {
+                        System.err.println("接收报文失败: " + e.getMessage());
+                    }
+                    continue;
+                }
+                try {
+                    handler.accept(packet);
+                } catch (RuntimeException e) {
+                    packet.release();
+                    System.err.println("处理报文失败: " + e.getMessage());
+                }
+            }
+        }, "NetReceiver-" + port);
+        receiveThread.start();
     }
 
     /**
-     * 接收单个原始数据包（包含序列号的分块数据）
-     * 返回完整的数据包数据，用于转发
+     * 阻塞接收一个报文到池中的缓冲区
+     * 不能与 start() 启动的接收线程同时使用
      */
-    public byte[] listenRawPacket() {
-        try (DatagramSocket socket = new DatagramSocket(port)) {
-            byte[] buffer = new byte[1500]; // UDP最大安全大小
-            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-            
-            // 接收数据包
-            socket.receive(packet);
-            
-            // 返回实际接收到的数据
-            byte[] actualData = new byte[packet.getLength()];
-            System.arraycopy(packet.getData(), 0, actualData, 0, packet.getLength());
-            
-            return actualData;
+    public Packet receive() throws IOException, InterruptedException {
+        ByteBuffer buffer = freeBuffers.take();
+        try {
+            buffer.clear();
+            SocketAddress sender = channel.receive(buffer);
+            buffer.flip();
+            return new Packet(buffer, sender);
+        } catch (IOException e) {
+            freeBuffers.offer(buffer);
+            throw e;
+        }
+    }
+
+    /**
+     * 当前空闲的缓冲区数
+     */
+    public int availableBuffers() {
+        return freeBuffers.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        channel.close();
+        if (receiveThread != null) {
+            receiveThread.interrupt();
+        }
+    }
+
+    private List<StudentRecord> parseRecords(ByteBuffer data) {
+        List<StudentRecord> records = new ArrayList<>();
+        int actualLength = data.remaining();  // 实际数据长度
+        
+        // 每条记录大小：int(4字节) + float(4字节) * 4 = 20字节
+        int recordSize = 20;  // 4 + 4 * 4
+        
+        if (actualLength % recordSize != 0) {
+            System.err.println("警告: 数据长度(" + actualLength + 
+                              ")不是记录大小的整数倍(" + recordSize + ")");
+        }
+        
+        // 使用ByteBuffer解析，设置字节序
+        ByteBuffer buffer = data.slice();
+        buffer.order(ByteOrder.BIG_ENDIAN);  // 或 LITTLE_ENDIAN，需与发送方一致
+        
+        int recordCount = actualLength / recordSize;
+        
+        for (int i = 0; i < recordCount; i++) {
+            try {
+                int studentId = buffer.getInt();               // 4字节
+                float chineseScore = buffer.getFloat();        // 4字节
+                float mathScore = buffer.getFloat();           // 4字节
+                float englishScore = buffer.getFloat();        // 4字节
+                float comprehensiveScore = buffer.getFloat();  // 4字节
+                
+                StudentRecord record = new StudentRecord(
+                    studentId, chineseScore, mathScore, 
+                    englishScore, comprehensiveScore
+                );
+                records.add(record);
+                
+            } catch (BufferUnderflowException e) {
+                System.err.println("解析第 " + i + " 条记录时数据不足");
+                break;
+            }
+        }
+        
+        return records;
+    }
+
+    public List<StudentRecord> listen() {
+        try {
+            // 接收数据（阻塞方法）
+            Packet packet = receive();
+            try {
+                return parseRecords(packet.data);
+            } finally {
+                packet.release();
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
-        return new byte[0];
+        return new ArrayList<>();
     }
 
     /**
      * 监听并接收分块数据，直到收到结束标记
      */
     public List<StudentRecord> listenChunks() {
-        try (DatagramSocket socket = new DatagramSocket(port)) {
+        try {
             Map<Integer, byte[]> chunks = new TreeMap<>(); // 使用TreeMap保持顺序
             boolean isComplete = false;
             int expectedTotalChunks = -1;
@@ -106,32 +206,22 @@ private List<StudentRecord> parseRecords(DatagramPacket packet) {
             System.out.println("开始接收分块数据...");
             
             while (!isComplete) {
-                byte[] buffer = new byte[1500]; // UDP最大安全大小
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                
                 // 接收数据包
-                socket.receive(packet);
+                Packet packet = receive();
+                ByteBuffer data = packet.data;
+                int length = data.remaining();
                 
-                byte[] data = packet.getData();
-                int length = packet.getLength();
-                
-                if (length < 4) {
-                    System.err.println("接收到的数据包太小，忽略");
-                    continue;
-                }
-                
-                // 解析序列号
-                ByteBuffer seqBuffer = ByteBuffer.wrap(data, 0, 4);
-                seqBuffer.order(ByteOrder.BIG_ENDIAN);
-                int sequenceNumber = seqBuffer.getInt();
-                
-                // 检查是否为结束标记
-                if (length == 8) {
-                    ByteBuffer endBuffer = ByteBuffer.wrap(data, 4, 4);
-                    endBuffer.order(ByteOrder.BIG_ENDIAN);
-                    int marker = endBuffer.getInt();
+                try {
+                    if (length < 4) {
+                        System.err.println("接收到的数据包太小，忽略");
+                        continue;
+                    }
+                    
+                    // 解析序列号
+                    int sequenceNumber = data.getInt(0);
                     
-                    if (marker == -1) {
+                    // 检查是否为结束标记
+                    if (length == 8 && data.getInt(4) == -1) {
                         // 这是结束标记
                         expectedTotalChunks = sequenceNumber;
                         System.out.println("收到结束标记，期望总块数: " + expectedTotalChunks);
@@ -142,15 +232,17 @@ private List<StudentRecord> parseRecords(DatagramPacket packet) {
                         }
                         continue;
                     }
+                    
+                    // 存储数据块（去掉序列号）
+                    byte[] chunkData = new byte[length - 4];
+                    data.get(4, chunkData);
+                    chunks.put(sequenceNumber, chunkData);
+                    
+                    System.out.println("收到第 " + sequenceNumber + " 块，大小: " + chunkData.length + " 字节");
+                } finally {
+                    packet.release();
                 }
                 
-                // 存储数据块（去掉序列号）
-                byte[] chunkData = new byte[length - 4];
-                System.arraycopy(data, 4, chunkData, 0, length - 4);
-                chunks.put(sequenceNumber, chunkData);
-                
-                System.out.println("收到第 " + sequenceNumber + " 块，大小: " + chunkData.length + " 字节");
-                
                 // 如果已知总块数且收齐了所有块，则完成
                 if (expectedTotalChunks != -1 && chunks.size() == expectedTotalChunks) {
                     isComplete = true;
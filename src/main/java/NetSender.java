@@ -2,22 +2,39 @@ import java.io.IOException;
 import java.net.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
 import java.util.List;
 
 public class NetSender {
+    private DatagramChannel channel;
     private DatagramSocket socket;
     private InetAddress targetAddress;
     private int targetPort;
+    private long retransmissions;
+    private RatePacer pacer;
     
     /**
      * 构造函数
      * @param targetHost 目标主机地址
      * @param targetPort 目标端口
      */
-    public NetSender(String targetHost, int targetPort) throws SocketException, UnknownHostException {
-        this.socket = new DatagramSocket();
+    public NetSender(String targetHost, int targetPort) throws IOException {
+        // 发往同一节点的所有数据块和转发报文共用一个速率控制器，速率在块之间延续
+        this(targetHost, targetPort, RatePacer.fromEnv());
+    }
+    
+    /**
+     * @param pacer 速率控制器，可与发往同一节点的其他发送器共用，null为不限速
+     */
+    public NetSender(String targetHost, int targetPort, RatePacer pacer) throws IOException {
+        // 底层为DatagramChannel，既可以发送直接缓冲区，也可以通过socket适配器收发DatagramPacket
+        this.channel = DatagramChannel.open();
+        this.socket = channel.socket();
         this.targetAddress = InetAddress.getByName(targetHost);
         this.targetPort = targetPort;
+        // 只与目标节点通信：收不到其它来源的报文，节点不可达时接收会立即报错
+        this.socket.connect(targetAddress, targetPort);
+        this.pacer = pacer;
     }
     
     /**
@@ -68,35 +85,117 @@ public class NetSender {
             return;
         }
         
+        if (pacer != null) {
+            pacer.acquire(rawData.length, false);
+        }
+        
         // 直接转发原始数据包
         DatagramPacket packet = new DatagramPacket(rawData, rawData.length, targetAddress, targetPort);
         socket.send(packet);
     }
     
+    /**
+     * 转发缓冲区中的原始数据包(position到limit)，不复制数据
+     * 不改变buffer的position，同一个缓冲区可以依次转发给多个节点
+     */
+    public void forwardRawPacket(ByteBuffer rawData) throws IOException {
+        if (rawData == null || !rawData.hasRemaining()) {
+            return;
+        }
+        if (pacer != null) {
+            // 转发没有确认反馈，按当前速率匀速发出
+            pacer.acquire(rawData.remaining(), false);
+        }
+        channel.write(rawData.duplicate());
+    }
+    
     /**
      * 发送数据块到存储节点
+     * 数据块按 ChunkTransfer 协议分片可靠传输，阻塞到节点确认存储完成
+     * @throws IOException 传输超时或节点存储失败
      */
     public void sendDataChunk(int chunkId, byte[] chunkData, boolean isPrimary) throws IOException {
-        // 创建数据包：chunkId(4字节) + isPrimary(1字节) + 数据长度(4字节) + 数据
-        ByteBuffer buffer = ByteBuffer.allocate(4 + 1 + 4 + chunkData.length);
-        buffer.order(ByteOrder.BIG_ENDIAN);
-        
-        buffer.putInt(chunkId);
-        buffer.put((byte) (isPrimary ? 1 : 0));
-        buffer.putInt(chunkData.length);
-        buffer.put(chunkData);
-        
-        byte[] packetData = buffer.array();
-        DatagramPacket packet = new DatagramPacket(packetData, packetData.length, targetAddress, targetPort);
-        socket.send(packet);
+        sendDataChunk(chunkId, ByteBuffer.wrap(chunkData), isPrimary);
+    }
+    
+    /**
+     * 发送数据块到存储节点，块内容为chunk的position到limit
+     */
+    public void sendDataChunk(int chunkId, ByteBuffer chunk, boolean isPrimary) throws IOException {
+        sendDataChunk(chunkId, chunk, isPrimary, null);
+    }
+    
+    /**
+     * 发送数据块，并由目标节点存储后链式转发给chainTarget("主机:端口")
+     * @throws ChunkTransfer.ReplicaFailedException 目标节点已存储但转发失败
+     */
+    public void sendDataChunk(int chunkId, ByteBuffer chunk, boolean isPrimary, String chainTarget)
+            throws IOException {
+        sendDataChunk(chunkId, chunk, isPrimary, chainTarget, ChunkCodec.NONE);
+    }
+    
+    /**
+     * 发送已按codec压缩的数据块，节点按压缩形式存储，校验和在此计算
+     */
+    public void sendDataChunk(int chunkId, ByteBuffer chunk, boolean isPrimary, String chainTarget,
+                              ChunkCodec codec) throws IOException {
+        sendDataChunk(chunkId, chunk, isPrimary, chainTarget, codec, ChunkChecksum.of(chunk));
+    }
+    
+    /**
+     * 发送数据块，附带已知的校验和(节点转发已校验过的块时使用)
+     * 节点校验失败(数据在传输中损坏)时重发一次
+     * 同一个NetSender上的发送串行执行，避免并发的传输互相读走对方的确认
+     * @throws ChunkChecksum.MismatchException 重发后节点收到的数据仍然损坏
+     */
+    public synchronized void sendDataChunk(int chunkId, ByteBuffer chunk, boolean isPrimary, String chainTarget,
+                                           ChunkCodec codec, int checksum) throws IOException {
+        try {
+            retransmissions += ChunkTransfer.send(socket, targetAddress, targetPort, chunkId, chunk,
+                                                  isPrimary, chainTarget, codec, checksum, pacer);
+        } catch (ChunkChecksum.MismatchException e) {
+            System.err.println(e.getMessage() + "，重发");
+            retransmissions += ChunkTransfer.send(socket, targetAddress, targetPort, chunkId, chunk,
+                                                  isPrimary, chainTarget, codec, checksum, pacer);
+        }
+    }
+    
+    /**
+     * 累计重传的分片数
+     */
+    public synchronized long getRetransmissions() {
+        return retransmissions;
+    }
+
+    /**
+     * 发送速率控制器，PACING=off 时为null
+     */
+    public RatePacer getPacer() {
+        return pacer;
+    }
+
+    /**
+     * 当前发送速率(字节/秒)，不限速时返回0
+     */
+    public double getSendRate() {
+        return pacer != null ? pacer.getRate() : 0;
+    }
+
+    /**
+     * 重传字节数占发送字节数的比例，不限速时不统计，返回0
+     */
+    public double getLossRatio() {
+        return pacer != null ? pacer.getLossRatio() : 0;
     }
 
     /**
      * 关闭socket
      */
     public void close() {
-        if (socket != null && !socket.isClosed()) {
-            socket.close();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("关闭发送器失败: " + e.getMessage());
         }
     }
 }
\ No newline at end of file
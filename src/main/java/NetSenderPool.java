@@ -0,0 +1,150 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * 按存储节点复用的发送器池
+ * 每个节点最多创建 sendersPerNode 个NetSender(各自一个socket)，整个上传过程共用，结束时统一关闭，
+ * 不再为每个数据块和每个副本新建socket。可以被多个线程并发使用：
+ * 一个NetSender同一时间只传输一个数据块(确认报文不会被别的传输读走)，
+ * 因此每个节点同时在传输的数据块不超过 sendersPerNode 个，超出的发送等待空闲的发送器；不同节点之间互不影响。
+ * 同一节点的发送器共用一个速率控制器，并发的传输不会超出该节点的速率。
+ */
+public class NetSenderPool implements Closeable {
+    /**
+     * 一个节点的发送器
+     */
+    private static class Lane {
+        final BlockingQueue<NetSender> idle = new LinkedBlockingQueue<>();
+        final List<NetSender> all = new CopyOnWriteArrayList<>();
+        final RatePacer pacer = RatePacer.fromEnv();
+    }
+
+    private final int sendersPerNode;
+    private final Map<Integer, Lane> lanes = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    /**
+     * 每个节点的并发传输数取环境变量 UPLOAD_INFLIGHT_PER_NODE(默认4)
+     */
+    public NetSenderPool() {
+        this(Integer.parseInt(System.getenv().getOrDefault("UPLOAD_INFLIGHT_PER_NODE", "4")));
+    }
+
+    public NetSenderPool(int sendersPerNode) {
+        this.sendersPerNode = Math.max(1, sendersPerNode);
+    }
+
+    public int getSendersPerNode() {
+        return sendersPerNode;
+    }
+
+    /**
+     * 取出节点的一个空闲发送器，都在使用且已达上限时等待，用完后必须用release归还
+     */
+    private NetSender acquire(Client.StorageNodeInfo node) throws IOException {
+        if (closed) {
+            throw new IOException("发送器池已关闭");
+        }
+        Lane lane = lanes.computeIfAbsent(node.nodeId, id -> new Lane());
+        NetSender sender = lane.idle.poll();
+        if (sender != null) {
+            return sender;
+        }
+        synchronized (lane) {
+            if (lane.all.size() < sendersPerNode) {
+                sender = new NetSender(node.host, node.port, lane.pacer);
+                lane.all.add(sender);
+                return sender;
+            }
+        }
+        try {
+            return lane.idle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待发送器被中断");
+        }
+    }
+
+    private void release(Client.StorageNodeInfo node, NetSender sender) {
+        lanes.get(node.nodeId).idle.offer(sender);
+    }
+
+    /**
+     * 发送数据块到节点，阻塞到节点确认存储完成
+     */
+    public void sendDataChunk(Client.StorageNodeInfo node, int chunkId, byte[] chunkData, boolean isPrimary)
+            throws IOException {
+        NetSender sender = acquire(node);
+        try {
+            sender.sendDataChunk(chunkId, chunkData, isPrimary);
+        } finally {
+            release(node, sender);
+        }
+    }
+
+    /**
+     * 发送按codec压缩的数据块到节点，chainTarget("主机:端口")非空时由节点存储后链式转发，阻塞到链上都存储完成
+     */
+    public void sendDataChunk(Client.StorageNodeInfo node, int chunkId, ByteBuffer chunkData, boolean isPrimary,
+                              String chainTarget, ChunkCodec codec) throws IOException {
+        NetSender sender = acquire(node);
+        try {
+            sender.sendDataChunk(chunkId, chunkData, isPrimary, chainTarget, codec);
+        } finally {
+            release(node, sender);
+        }
+    }
+
+    /**
+     * 各节点累计重传的分片数之和
+     */
+    public long getRetransmissions() {
+        long total = 0;
+        for (Lane lane : lanes.values()) {
+            for (NetSender sender : lane.all) {
+                total += sender.getRetransmissions();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 打印每个节点的发送速率和丢包统计
+     */
+    public void printStats() {
+        for (Map.Entry<Integer, Lane> entry : lanes.entrySet()) {
+            Lane lane = entry.getValue();
+            long retransmissions = 0;
+            for (NetSender sender : lane.all) {
+                retransmissions += sender.getRetransmissions();
+            }
+            System.out.println("节点 " + entry.getKey() + " 发送统计: 发送器 " + lane.all.size() +
+                               " 个，重传分片 " + retransmissions +
+                               (lane.pacer != null ? "，" + lane.pacer : "，未限速"));
+        }
+    }
+
+    /**
+     * 关闭所有发送器
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        List<NetSender> all = new ArrayList<>();
+        for (Lane lane : lanes.values()) {
+            all.addAll(lane.all);
+        }
+        lanes.clear();
+        for (NetSender sender : all) {
+            sender.close();
+        }
+    }
+}
@@ -0,0 +1,375 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 数据块存放节点的选择
+ * - random:   均匀随机选择主节点，备份节点为列表中的下一个节点(原来的方式)
+ * - weighted: 按节点权重随机选择主节点和备份节点(两者不同)，权重由三部分相乘:
+ *             剩余空间占各节点最大值的比例、1 / (1 + 待处理的块数)、最快节点的延迟 / 本节点的延迟。
+ *             剩余空间和节点上待落盘的块数来自节点的状态响应，在途块数和延迟由Client在上传中统计
+ * - hash:     一致性哈希，每个节点在环上有多个虚拟节点，块ID顺时针遇到的第一个节点为主节点，
+ *             之后第一个不同的节点为备份节点；同一块ID总是放在相同的节点上，增减节点只影响相邻区间
+ * 三种方式都跳过剩余空间不足两个数据块的节点(按最近一次应答的状态，从未应答的节点视为空间充足)。
+ *
+ * 节点状态由后台线程定期请求，选择时只读取已发布的状态，不等待节点应答。
+ * 上一轮没有应答的节点多半过载或已停止: weighted方式沿用它最近一次的状态并把权重降为十分之一，
+ * hash方式先跳过它，没有足够的其他节点时才选择它。
+ *
+ * 环境变量: PLACEMENT 选择方式(默认weighted)；PLACEMENT_STATS_MS 重新请求节点状态的间隔(默认2000)
+ */
+public class PlacementEngine implements AutoCloseable {
+    private static final int VIRTUAL_NODES = 64;
+    private static final double LATENCY_EWMA = 0.2;    // 延迟的指数平均系数
+    private static final double MIN_WEIGHT = 0.01;     // 有空间的节点至少保留的权重，避免长期得不到样本
+    private static final double SILENT_FACTOR = 0.1;   // 上一轮没有应答的节点的权重系数
+    private static final int STATS_TIMEOUT_MS = 300;
+
+    public enum Mode {
+        RANDOM, WEIGHTED, HASH;
+
+        public static Mode parse(String value) {
+            if (value == null || value.isEmpty()) {
+                return WEIGHTED;
+            }
+            return valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    /**
+     * 一个数据块的存放位置，只有一个可用节点时主、备为同一节点
+     */
+    public static class Placement {
+        public final Client.StorageNodeInfo primary;
+        public final Client.StorageNodeInfo backup;
+
+        public Placement(Client.StorageNodeInfo primary, Client.StorageNodeInfo backup) {
+            this.primary = primary;
+            this.backup = backup;
+        }
+    }
+
+    /**
+     * Client在上传中观察到的节点负载
+     */
+    private static class Observed {
+        final AtomicInteger inFlight = new AtomicInteger();
+        volatile double latencyNanos = Double.NaN;  // 发送一个数据块到确认的平均耗时，NaN为尚无样本
+    }
+
+    /**
+     * 节点最近一次应答的状态，silent表示上一轮请求没有应答
+     */
+    private static class NodeState {
+        final QueryProtocol.NodeStats stats;   // 从未应答时为null
+        final long answeredNanos;
+        final boolean silent;
+
+        NodeState(QueryProtocol.NodeStats stats, long answeredNanos, boolean silent) {
+            this.stats = stats;
+            this.answeredNanos = answeredNanos;
+            this.silent = silent;
+        }
+    }
+
+    private final List<Client.StorageNodeInfo> nodes;
+    private final Mode mode;
+    private final long reserveBytes;
+    private final QueryClient statsClient;
+    private final ScheduledExecutorService statsTimer;   // random方式不请求状态，为null
+    private final Random random = new Random();
+    private final TreeMap<Long, Client.StorageNodeInfo> ring = new TreeMap<>();
+    private final Map<Integer, Observed> observed = new ConcurrentHashMap<>();
+    // 由状态线程整体替换后发布，第一轮有节点应答之前为空
+    private volatile Map<Integer, NodeState> states = Map.of();
+
+    /**
+     * @param chunkSize 数据块大小，剩余空间不足两块的节点不再选择
+     */
+    public PlacementEngine(List<Client.StorageNodeInfo> nodes, Mode mode, int chunkSize) {
+        this(nodes, mode, chunkSize, Long.parseLong(System.getenv().getOrDefault("PLACEMENT_STATS_MS", "2000")));
+    }
+
+    public PlacementEngine(List<Client.StorageNodeInfo> nodes, Mode mode, int chunkSize, long statsIntervalMillis) {
+        this.nodes = nodes;
+        this.mode = mode;
+        this.reserveBytes = 2L * chunkSize;
+        this.statsClient = new QueryClient(nodes);
+        for (Client.StorageNodeInfo node : nodes) {
+            observed.put(node.nodeId, new Observed());
+            for (int v = 0; v < VIRTUAL_NODES; v++) {
+                ring.put(mix(((long) node.nodeId << 32) | v), node);
+            }
+        }
+        if (mode == Mode.RANDOM) {
+            this.statsTimer = null;
+        } else {
+            this.statsTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "PlacementStats");
+                thread.setDaemon(true);
+                return thread;
+            });
+            statsTimer.scheduleWithFixedDelay(this::refreshStats, 0, statsIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 按环境变量 PLACEMENT 创建
+     */
+    public static PlacementEngine fromEnv(List<Client.StorageNodeInfo> nodes, int chunkSize) {
+        return new PlacementEngine(nodes, Mode.parse(System.getenv("PLACEMENT")), chunkSize);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * 重新请求各节点的状态，在状态线程上定期执行
+     * 没有应答的节点保留最近一次的状态并标记为silent；一个节点都没有应答时多半是本机网络的问题，保留上一轮的结果
+     */
+    private void refreshStats() {
+        Map<Integer, QueryProtocol.NodeStats> replies = statsClient.fetchStats(STATS_TIMEOUT_MS);
+        if (replies.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        Map<Integer, NodeState> previous = states;
+        Map<Integer, NodeState> next = new HashMap<>();
+        for (Client.StorageNodeInfo node : nodes) {
+            QueryProtocol.NodeStats reply = replies.get(node.nodeId);
+            NodeState last = previous.get(node.nodeId);
+            if (reply != null) {
+                next.put(node.nodeId, new NodeState(reply, now, false));
+            } else if (last != null) {
+                next.put(node.nodeId, new NodeState(last.stats, last.answeredNanos, true));
+            } else {
+                next.put(node.nodeId, new NodeState(null, 0, true));
+            }
+        }
+        states = next;
+    }
+
+    /**
+     * 为数据块选择主节点和备份节点，只读取状态线程已发布的节点状态
+     * 只由分发数据块的线程调用
+     */
+    public Placement choose(int chunkId) {
+        switch (mode) {
+            case HASH:
+                return chooseByHash(chunkId);
+            case WEIGHTED:
+                return chooseByWeight();
+            default:
+                int primaryIndex = random.nextInt(nodes.size());
+                return new Placement(nodes.get(primaryIndex), nodes.get((primaryIndex + 1) % nodes.size()));
+        }
+    }
+
+    /**
+     * 开始向节点发送一个数据块
+     */
+    public void onSendStart(Client.StorageNodeInfo node) {
+        observed.get(node.nodeId).inFlight.incrementAndGet();
+    }
+
+    /**
+     * 节点确认(或发送失败)，elapsedNanos为发送到确认的耗时
+     */
+    public void onSendComplete(Client.StorageNodeInfo node, long elapsedNanos, boolean success) {
+        Observed o = observed.get(node.nodeId);
+        o.inFlight.decrementAndGet();
+        // 失败的发送按超时计入，节点在一段时间内权重很低
+        double sample = success ? elapsedNanos : Math.max(elapsedNanos, 1e9);
+        synchronized (o) {
+            o.latencyNanos = Double.isNaN(o.latencyNanos) ? sample
+                           : o.latencyNanos + LATENCY_EWMA * (sample - o.latencyNanos);
+        }
+    }
+
+    private Placement chooseByHash(int chunkId) {
+        List<Client.StorageNodeInfo> chosen = new ArrayList<>(2);
+        Long key = ring.ceilingKey(mix(chunkId));
+        if (key == null) {
+            key = ring.firstKey();
+        }
+        // 顺时针遍历一圈，取前两个有空间的不同节点；先跳过没有应答的节点，不够两个时再遍历一圈
+        Map<Integer, NodeState> current = states;
+        for (int pass = 0; pass < 2 && chosen.size() < 2; pass++) {
+            Long start = key;
+            for (int steps = 0; steps < ring.size() && chosen.size() < 2; steps++) {
+                Client.StorageNodeInfo node = ring.get(key);
+                if (!chosen.contains(node) && hasSpace(current, node) && (pass > 0 || !isSilent(current, node))) {
+                    chosen.add(node);
+                }
+                key = ring.higherKey(key);
+                if (key == null) {
+                    key = ring.firstKey();
+                }
+            }
+            key = start;
+        }
+        return toPlacement(chosen);
+    }
+
+    private Placement chooseByWeight() {
+        Map<Integer, NodeState> current = states;
+        double[] weights = new double[nodes.size()];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = weight(current, nodes.get(i));
+        }
+        List<Client.StorageNodeInfo> chosen = new ArrayList<>(2);
+        for (int pick = 0; pick < 2; pick++) {
+            int index = pickWeighted(weights);
+            if (index < 0) {
+                break;
+            }
+            chosen.add(nodes.get(index));
+            weights[index] = 0; // 备份节点与主节点不同
+        }
+        return toPlacement(chosen);
+    }
+
+    /**
+     * 节点的权重，空间不足时为0，上一轮没有应答时乘以 SILENT_FACTOR
+     */
+    private double weight(Map<Integer, NodeState> current, Client.StorageNodeInfo node) {
+        if (!hasSpace(current, node)) {
+            return 0;
+        }
+        QueryProtocol.NodeStats s = statsOf(current, node);
+        Observed o = observed.get(node.nodeId);
+
+        double capacity = 1;
+        long maxFree = 0;
+        for (NodeState other : current.values()) {
+            if (other.stats != null) {
+                maxFree = Math.max(maxFree, other.stats.freeBytes);
+            }
+        }
+        if (s != null && maxFree > 0) {
+            capacity = (double) s.freeBytes / maxFree;
+        }
+
+        int pending = o.inFlight.get() + (s != null ? s.pendingChunks : 0);
+        double load = 1.0 / (1 + pending);
+
+        double speed = 1;
+        double fastest = Double.MAX_VALUE;
+        for (Observed other : observed.values()) {
+            if (!Double.isNaN(other.latencyNanos)) {
+                fastest = Math.min(fastest, other.latencyNanos);
+            }
+        }
+        if (!Double.isNaN(o.latencyNanos) && o.latencyNanos > 0) {
+            speed = fastest / o.latencyNanos;
+        }
+
+        double weight = Math.max(MIN_WEIGHT, capacity * load * speed);
+        return isSilent(current, node) ? weight * SILENT_FACTOR : weight;
+    }
+
+    private int pickWeighted(double[] weights) {
+        double total = 0;
+        for (double w : weights) {
+            total += w;
+        }
+        if (total <= 0) {
+            return -1;
+        }
+        double target = random.nextDouble() * total;
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] <= 0) {
+                continue;
+            }
+            target -= weights[i];
+            if (target < 0) {
+                return i;
+            }
+        }
+        // 浮点误差时取最后一个有权重的节点
+        for (int i = weights.length - 1; i >= 0; i--) {
+            if (weights[i] > 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean hasSpace(Map<Integer, NodeState> current, Client.StorageNodeInfo node) {
+        QueryProtocol.NodeStats s = statsOf(current, node);
+        return s == null || s.freeBytes >= reserveBytes;
+    }
+
+    private static QueryProtocol.NodeStats statsOf(Map<Integer, NodeState> current, Client.StorageNodeInfo node) {
+        NodeState state = current.get(node.nodeId);
+        return state != null ? state.stats : null;
+    }
+
+    private static boolean isSilent(Map<Integer, NodeState> current, Client.StorageNodeInfo node) {
+        NodeState state = current.get(node.nodeId);
+        return state != null && state.silent;
+    }
+
+    /**
+     * 所有节点都没有空间时仍按原方式选择，由节点返回存储失败
+     */
+    private Placement toPlacement(List<Client.StorageNodeInfo> chosen) {
+        if (chosen.isEmpty()) {
+            int primaryIndex = random.nextInt(nodes.size());
+            return new Placement(nodes.get(primaryIndex), nodes.get((primaryIndex + 1) % nodes.size()));
+        }
+        return new Placement(chosen.get(0), chosen.get(chosen.size() > 1 ? 1 : 0));
+    }
+
+    /**
+     * 64位混合函数(MurmurHash3的fmix64)，使相邻的块ID和节点ID在环上均匀分散
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    /**
+     * 打印各节点的状态和上传中的统计
+     */
+    public void printStats() {
+        Map<Integer, NodeState> current = states;
+        long now = System.nanoTime();
+        for (Client.StorageNodeInfo node : nodes) {
+            NodeState state = current.get(node.nodeId);
+            QueryProtocol.NodeStats s = state != null ? state.stats : null;
+            Observed o = observed.get(node.nodeId);
+            String silence = "";
+            if (state != null && state.silent) {
+                silence = s != null ? String.format("，%.1f 秒未应答", (now - state.answeredNanos) / 1e9) : "，从未应答";
+            }
+            System.out.printf("节点 %d 存放统计: 剩余空间 %s，平均确认耗时 %s%s%n", node.nodeId,
+                              s != null ? String.format("%.1f MB", s.freeBytes / 1024.0 / 1024.0) : "未知",
+                              Double.isNaN(o.latencyNanos) ? "未知" : String.format("%.1f ms", o.latencyNanos / 1e6),
+                              silence);
+        }
+    }
+
+    /**
+     * 停止请求节点状态
+     */
+    @Override
+    public void close() {
+        if (statsTimer != null) {
+            statsTimer.shutdownNow();
+        }
+    }
+}
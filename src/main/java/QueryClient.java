@@ -1,7 +1,13 @@
 import java.io.*;
 import java.net.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 分布式查询客户端
@@ -9,18 +15,87 @@ import java.util.Scanner;
  */
 public class QueryClient {
     private List<Client.StorageNodeInfo> storageNodes;
+    private Map<Integer, Client.StorageNodeInfo> nodesById;
+    private AtomicInteger nextRequestId = new AtomicInteger();
+    
+    private static final int MAX_RANGE_IDS = 100000; // 交互式区间查询的学号数上限
+    
+    // 路由表缓存，文件更新后重新加载
+    private File routingTableFile;
+    private RoutingTable routingTable;
+    private long routingTableModified;
+    
+    /**
+     * 批量查询中一个学号的路由进度
+     * nodeIds 依次为各覆盖路由的主节点、备份节点，next 指向下一个要询问的节点
+     */
+    private static class PendingLookup {
+        final int studentId;
+        final int[] nodeIds;
+        int next;
+        boolean answered; // 已有节点明确答复未找到
+        
+        PendingLookup(int studentId, List<RoutingTable.Route> routes) {
+            this.studentId = studentId;
+            this.nodeIds = new int[routes.size() * 2];
+            for (int i = 0; i < routes.size(); i++) {
+                nodeIds[i * 2] = routes.get(i).primaryNodeId;
+                nodeIds[i * 2 + 1] = routes.get(i).backupNodeId;
+            }
+        }
+    }
     
     public QueryClient(List<Client.StorageNodeInfo> storageNodes) {
+        this(storageNodes, RoutingTable.defaultFile());
+    }
+    
+    public QueryClient(List<Client.StorageNodeInfo> storageNodes, File routingTableFile) {
         this.storageNodes = storageNodes;
+        this.routingTableFile = routingTableFile;
+        this.nodesById = new HashMap<>();
+        for (Client.StorageNodeInfo node : storageNodes) {
+            nodesById.put(node.nodeId, node);
+        }
     }
     
     /**
      * 查询学生记录
+     * 有路由表时只询问持有该学号的主节点，失败时改问备份节点；
+     * 没有路由表或路由节点都不可用时，依次询问所有节点
      */
     public StudentRecord queryStudent(int studentId) {
+        RoutingTable table = routingTable();
+        if (table != null) {
+            List<RoutingTable.Route> routes = table.lookup(studentId);
+            boolean answered = false;
+            
+            for (RoutingTable.Route route : routes) {
+                for (int nodeId : new int[] {route.primaryNodeId, route.backupNodeId}) {
+                    Client.StorageNodeInfo node = nodesById.get(nodeId);
+                    if (node == null) {
+                        continue;
+                    }
+                    try {
+                        StudentRecord record = queryFromNode(studentId, route.chunkId, node);
+                        if (record != null) {
+                            return record;
+                        }
+                        answered = true;
+                        break; // 节点明确答复未找到，无需再问副本
+                    } catch (IOException e) {
+                        System.err.println("查询节点 " + node.nodeId + " 失败，尝试副本: " + e.getMessage());
+                    }
+                }
+            }
+            
+            if (answered || routes.isEmpty()) {
+                return null;
+            }
+        }
+        
         for (Client.StorageNodeInfo node : storageNodes) {
             try {
-                StudentRecord record = queryFromNode(studentId, node);
+                StudentRecord record = queryFromNode(studentId, -1, node);
                 if (record != null) {
                     return record;
                 }
@@ -31,57 +106,261 @@ public class QueryClient {
         return null;
     }
     
+    /**
+     * 批量查询学生记录
+     * 有路由表时按持有学号的节点分组，每个节点只收到一次批量请求(超过单个报文上限时拆成多个)；
+     * 节点失败的学号改问备份节点，节点答复未找到的学号再问下一个覆盖它的块所在节点。
+     * 没有路由表或路由节点都不可用的学号依次询问所有节点
+     * @return 学号 → 记录，只包含找到的学号
+     */
+    public Map<Integer, StudentRecord> queryStudents(int[] studentIds) {
+        Map<Integer, StudentRecord> results = new HashMap<>();
+        int[] targets = Arrays.stream(studentIds).distinct().toArray();
+        List<Integer> unresolved = new ArrayList<>();
+        
+        RoutingTable table = routingTable();
+        if (table == null) {
+            for (int studentId : targets) {
+                unresolved.add(studentId);
+            }
+        } else {
+            List<PendingLookup> pending = new ArrayList<>();
+            for (int studentId : targets) {
+                List<RoutingTable.Route> routes = table.lookup(studentId);
+                if (!routes.isEmpty()) {
+                    pending.add(new PendingLookup(studentId, routes));
+                }
+            }
+            
+            while (!pending.isEmpty()) {
+                // 按下一个要询问的节点分组
+                Map<Client.StorageNodeInfo, List<PendingLookup>> byNode = new LinkedHashMap<>();
+                for (PendingLookup lookup : pending) {
+                    while (lookup.next < lookup.nodeIds.length && !nodesById.containsKey(lookup.nodeIds[lookup.next])) {
+                        lookup.next++;
+                    }
+                    if (lookup.next < lookup.nodeIds.length) {
+                        byNode.computeIfAbsent(nodesById.get(lookup.nodeIds[lookup.next]), node -> new ArrayList<>())
+                              .add(lookup);
+                    } else if (!lookup.answered) {
+                        unresolved.add(lookup.studentId);
+                    }
+                }
+                
+                pending = new ArrayList<>();
+                for (Map.Entry<Client.StorageNodeInfo, List<PendingLookup>> group : byNode.entrySet()) {
+                    Client.StorageNodeInfo node = group.getKey();
+                    List<PendingLookup> lookups = group.getValue();
+                    int[] ids = lookups.stream().mapToInt(lookup -> lookup.studentId).toArray();
+                    try {
+                        Map<Integer, StudentRecord> hits = batchQueryFromNode(ids, node);
+                        results.putAll(hits);
+                        for (PendingLookup lookup : lookups) {
+                            if (!hits.containsKey(lookup.studentId)) {
+                                // 节点明确答复未找到，跳过同一路由的副本，改查下一个覆盖的块
+                                lookup.answered = true;
+                                lookup.next = (lookup.next / 2 + 1) * 2;
+                                pending.add(lookup);
+                            }
+                        }
+                    } catch (IOException e) {
+                        System.err.println("批量查询节点 " + node.nodeId + " 失败，尝试副本: " + e.getMessage());
+                        for (PendingLookup lookup : lookups) {
+                            lookup.next++;
+                            pending.add(lookup);
+                        }
+                    }
+                }
+            }
+        }
+        
+        for (Client.StorageNodeInfo node : storageNodes) {
+            unresolved.removeIf(results::containsKey);
+            if (unresolved.isEmpty()) {
+                break;
+            }
+            try {
+                int[] ids = unresolved.stream().mapToInt(Integer::intValue).toArray();
+                results.putAll(batchQueryFromNode(ids, node));
+            } catch (IOException e) {
+                System.err.println("批量查询节点 " + node.nodeId + " 失败: " + e.getMessage());
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * 获取路由表，文件有更新时重新加载
+     * @return 路由表，不存在时返回null
+     */
+    private synchronized RoutingTable routingTable() {
+        if (!routingTableFile.exists()) {
+            routingTable = null;
+            return null;
+        }
+        long modified = routingTableFile.lastModified();
+        if (routingTable == null || modified != routingTableModified) {
+            try {
+                routingTable = RoutingTable.load(routingTableFile);
+                routingTableModified = modified;
+            } catch (IOException e) {
+                System.err.println("加载路由表失败: " + e.getMessage());
+                routingTable = null;
+            }
+        }
+        return routingTable;
+    }
+    
+    /**
+     * 同时向所有节点请求状态(剩余空间、待落盘块数等)，在超时前收集回复
+     * @return 节点ID → 状态，未回复的节点不包含在内
+     */
+    public Map<Integer, QueryProtocol.NodeStats> fetchStats(int timeoutMillis) {
+        Map<Integer, QueryProtocol.NodeStats> stats = new HashMap<>();
+        try (DatagramSocket socket = new DatagramSocket()) {
+            Map<Integer, Client.StorageNodeInfo> pending = new HashMap<>();
+            for (Client.StorageNodeInfo node : storageNodes) {
+                int requestId = nextRequestId.incrementAndGet();
+                byte[] request = QueryProtocol.encodeStatsRequest(requestId);
+                try {
+                    socket.send(new DatagramPacket(request, request.length,
+                                                   InetAddress.getByName(node.host), node.queryPort));
+                    pending.put(requestId, node);
+                } catch (IOException e) {
+                    System.err.println("请求节点 " + node.nodeId + " 状态失败: " + e.getMessage());
+                }
+            }
+            
+            byte[] buffer = new byte[QueryProtocol.MAX_PACKET_SIZE];
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (!pending.isEmpty()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                socket.setSoTimeout((int) remaining);
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                try {
+                    socket.receive(packet);
+                } catch (SocketTimeoutException e) {
+                    break;
+                }
+                QueryProtocol.NodeStats reply = QueryProtocol.decodeStats(packet.getData(), packet.getLength());
+                Client.StorageNodeInfo node = reply != null ? pending.remove(reply.requestId) : null;
+                if (node != null) {
+                    stats.put(node.nodeId, reply);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("请求节点状态失败: " + e.getMessage());
+        }
+        return stats;
+    }
+    
     /**
      * 从指定节点查询
+     * @param chunkId 路由表给出的块ID，节点优先查找该块；未知时为-1
      */
-    private StudentRecord queryFromNode(int studentId, Client.StorageNodeInfo node) throws IOException {
+    private StudentRecord queryFromNode(int studentId, int chunkId, Client.StorageNodeInfo node) throws IOException {
         try (DatagramSocket socket = new DatagramSocket()) {
             // 发送查询请求
-            String query = "QUERY:" + studentId;
-            byte[] queryData = query.getBytes();
+            int requestId = nextRequestId.incrementAndGet();
+            byte[] queryData = QueryProtocol.encodeQuery(requestId, studentId, chunkId);
             
             InetAddress address = InetAddress.getByName(node.host);
-            int queryPort = node.port + 1000; // 查询端口
-            
             DatagramPacket queryPacket = new DatagramPacket(
-                queryData, queryData.length, address, queryPort);
+                queryData, queryData.length, address, node.queryPort);
             socket.send(queryPacket);
             
-            // 接收响应
-            byte[] buffer = new byte[1024];
-            DatagramPacket responsePacket = new DatagramPacket(buffer, buffer.length);
-            
+            // 接收响应，忽略请求ID不匹配的包
+            byte[] buffer = new byte[QueryProtocol.MAX_PACKET_SIZE];
             socket.setSoTimeout(5000); // 5秒超时
-            socket.receive(responsePacket);
             
-            String response = new String(responsePacket.getData(), 0, responsePacket.getLength());
+            QueryProtocol.Response response;
+            do {
+                DatagramPacket responsePacket = new DatagramPacket(buffer, buffer.length);
+                socket.receive(responsePacket);
+                response = QueryProtocol.decodeResponse(responsePacket.getData(), responsePacket.getLength());
+            } while (response == null || response.requestId != requestId);
             
-            if ("NOT_FOUND".equals(response)) {
-                return null;
+            switch (response.status) {
+                case QueryProtocol.STATUS_OK:
+                    return response.record;
+                case QueryProtocol.STATUS_NOT_FOUND:
+                    return null;
+                default:
+                    throw statusException(response.status);
             }
-            
-            return parseStudentRecord(response);
         }
     }
     
     /**
-     * 解析学生记录字符串
+     * 从指定节点批量查询
+     * 学号按单个报文上限拆成多个请求，每个请求的响应分片可能乱序到达，收齐后才算完成
+     * @return 学号 → 记录，只包含命中的学号；其余学号节点已确认不存在
      */
-    private StudentRecord parseStudentRecord(String recordStr) {
-        // 假设格式为: "学号: 123, 语文: 85.0, 数学: 90.0, 英语: 88.0, 综合: 87.5"
-        try {
-            String[] parts = recordStr.split(",");
-            int studentId = Integer.parseInt(parts[0].split(":")[1].trim());
-            float chinese = Float.parseFloat(parts[1].split(":")[1].trim());
-            float math = Float.parseFloat(parts[2].split(":")[1].trim());
-            float english = Float.parseFloat(parts[3].split(":")[1].trim());
-            float comprehensive = Float.parseFloat(parts[4].split(":")[1].trim());
+    private Map<Integer, StudentRecord> batchQueryFromNode(int[] studentIds, Client.StorageNodeInfo node)
+            throws IOException {
+        Map<Integer, StudentRecord> hits = new HashMap<>();
+        try (DatagramSocket socket = new DatagramSocket()) {
+            InetAddress address = InetAddress.getByName(node.host);
+            byte[] buffer = new byte[QueryProtocol.MAX_PACKET_SIZE];
+            socket.setSoTimeout(5000); // 5秒超时
             
-            return new StudentRecord(studentId, chinese, math, english, comprehensive);
-        } catch (Exception e) {
-            System.err.println("解析学生记录失败: " + e.getMessage());
-            return null;
+            for (int from = 0; from < studentIds.length; from += QueryProtocol.MAX_BATCH_IDS) {
+                int to = Math.min(from + QueryProtocol.MAX_BATCH_IDS, studentIds.length);
+                int requestId = nextRequestId.incrementAndGet();
+                byte[] queryData = QueryProtocol.encodeBatchQuery(requestId, studentIds, from, to);
+                socket.send(new DatagramPacket(queryData, queryData.length, address, node.queryPort));
+                
+                boolean[] received = null;
+                int receivedCount = 0;
+                while (received == null || receivedCount < received.length) {
+                    DatagramPacket responsePacket = new DatagramPacket(buffer, buffer.length);
+                    socket.receive(responsePacket);
+                    
+                    QueryProtocol.BatchResponse fragment = QueryProtocol.decodeBatchResponse(
+                        responsePacket.getData(), responsePacket.getLength());
+                    if (fragment == null) {
+                        // 节点繁忙或出错时回复的是单条响应
+                        QueryProtocol.Response response = QueryProtocol.decodeResponse(
+                            responsePacket.getData(), responsePacket.getLength());
+                        if (response != null && response.requestId == requestId) {
+                            throw statusException(response.status);
+                        }
+                        continue;
+                    }
+                    if (fragment.requestId != requestId) {
+                        continue;
+                    }
+                    
+                    if (received == null) {
+                        received = new boolean[fragment.fragmentCount];
+                    }
+                    if (fragment.fragmentIndex >= received.length || received[fragment.fragmentIndex]) {
+                        continue;
+                    }
+                    received[fragment.fragmentIndex] = true;
+                    receivedCount++;
+                    for (int i = 0; i < fragment.studentIds.length; i++) {
+                        if (fragment.records[i] != null) {
+                            hits.put(fragment.studentIds[i], fragment.records[i]);
+                        }
+                    }
+                }
+            }
         }
+        return hits;
+    }
+    
+    private static IOException statusException(byte status) {
+        if (status == QueryProtocol.STATUS_BUSY) {
+            return new IOException("节点繁忙");
+        }
+        if (status == QueryProtocol.STATUS_CORRUPT) {
+            return new IOException("节点上的数据块已损坏");
+        }
+        return new IOException("节点查询出错，状态: " + status);
     }
     
     /**
@@ -93,13 +372,32 @@ public class QueryClient {
             System.out.println("可用存储节点数: " + storageNodes.size());
             
             while (true) {
-                System.out.print("\n请输入学号 (输入 'quit' 退出): ");
+                System.out.print("\n请输入学号，批量查询用逗号分隔或 起始-结束 (输入 'quit' 退出): ");
                 String input = scanner.nextLine().trim();
                 
                 if ("quit".equals(input)) {
                     break;
                 }
                 
+                if (input.contains(",") || input.indexOf('-', 1) > 0) {
+                    int[] studentIds = parseStudentIds(input);
+                    if (studentIds == null) {
+                        System.out.println("请输入有效的学号列表");
+                        continue;
+                    }
+                    System.out.println("正在批量查询 " + studentIds.length + " 个学号...");
+                    
+                    Map<Integer, StudentRecord> records = queryStudents(studentIds);
+                    for (int studentId : studentIds) {
+                        StudentRecord record = records.get(studentId);
+                        if (record != null) {
+                            System.out.println("查询结果: " + record);
+                        }
+                    }
+                    System.out.println("找到 " + records.size() + " / " + studentIds.length + " 条记录");
+                    continue;
+                }
+                
                 try {
                     int studentId = Integer.parseInt(input);
                     System.out.println("正在查询学号 " + studentId + "...");
@@ -120,6 +418,35 @@ public class QueryClient {
         System.out.println("查询系统已退出");
     }
     
+    /**
+     * 解析批量查询输入："1,2,3" 或 "1000-1999"
+     * @return 学号数组，格式错误时返回null
+     */
+    private static int[] parseStudentIds(String input) {
+        try {
+            int dash = input.indexOf('-', 1);
+            if (!input.contains(",") && dash > 0) {
+                int start = Integer.parseInt(input.substring(0, dash).trim());
+                int end = Integer.parseInt(input.substring(dash + 1).trim());
+                if (end < start || (long) end - start >= MAX_RANGE_IDS) {
+                    return null;
+                }
+                int[] studentIds = new int[end - start + 1];
+                for (int i = 0; i < studentIds.length; i++) {
+                    studentIds[i] = start + i;
+                }
+                return studentIds;
+            }
+            return Arrays.stream(input.split(","))
+                         .map(String::trim)
+                         .filter(part -> !part.isEmpty())
+                         .mapToInt(Integer::parseInt)
+                         .toArray();
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
     public static void main(String[] args) {
         // 示例：配置存储节点
         List<Client.StorageNodeInfo> nodes = List.of(
@@ -0,0 +1,330 @@
+import java.net.InetAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 存储节点查询协议(二进制，UDP)
+ * 由 StorageNode 和 QueryClient 共用，取代原来的 "QUERY:<学号>" 文本请求和记录字符串响应。
+ *
+ * 请求: [版本(1字节)][类型(1字节)][请求ID(4字节)][学号(4字节)][块ID提示(4字节，-1表示无)]
+ * 响应: [版本(1字节)][类型(1字节)][请求ID(4字节)][状态(1字节)][记录(20字节，仅状态为OK时)]
+ *
+ * 批量请求: [版本(1字节)][类型(1字节)][请求ID(4字节)][学号数(2字节)][学号(4字节) × 学号数]
+ * 批量响应可能拆成多个报文，每个报文:
+ * [版本(1字节)][类型(1字节)][请求ID(4字节)][分片序号(2字节)][分片总数(2字节)][条目数(2字节)]
+ * 之后每个条目21字节: [状态(1字节)][记录(20字节)]，未命中时记录位置只有前4字节的学号有效。
+ *
+ * 状态请求: [版本(1字节)][类型(1字节)][请求ID(4字节)]
+ * 状态响应: [版本(1字节)][类型(1字节)][请求ID(4字节)][剩余磁盘空间(8字节)][已存储字节数(8字节)]
+ *          [待落盘的数据块数(4字节)][执行中的查询数(4字节)]
+ *
+ * 所有整数均为大端序，记录为与.dat文件相同的20字节原始格式。
+ */
+public class QueryProtocol {
+    public static final byte VERSION = 1;
+
+    // 消息类型
+    public static final byte TYPE_QUERY = 1;
+    public static final byte TYPE_BATCH_QUERY = 2;
+    public static final byte TYPE_STATS = 3;
+    public static final byte TYPE_RESPONSE = (byte) 0x81;
+    public static final byte TYPE_BATCH_RESPONSE = (byte) 0x82;
+    public static final byte TYPE_STATS_RESPONSE = (byte) 0x83;
+
+    // 响应状态
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_NOT_FOUND = 1;
+    public static final byte STATUS_BUSY = 2;
+    public static final byte STATUS_ERROR = 3;
+    public static final byte STATUS_CORRUPT = 4;   // 节点上的数据块校验失败，应改问副本
+
+    public static final int QUERY_SIZE = 14;
+    public static final int RESPONSE_HEADER_SIZE = 7;
+    // 报文负载上限: 以太网MTU 1500字节减去IP头(20字节)和UDP头(8字节)，满载的批量报文也不会被IP分片
+    public static final int MAX_PACKET_SIZE = 1500 - 28;
+
+    public static final int BATCH_HEADER_SIZE = 8;
+    public static final int MAX_BATCH_IDS = (MAX_PACKET_SIZE - BATCH_HEADER_SIZE) / 4;
+    public static final int BATCH_RESPONSE_HEADER_SIZE = 12;
+    public static final int BATCH_ENTRY_SIZE = 1 + StudentRecord.SIZE;
+    public static final int ENTRIES_PER_RESPONSE = (MAX_PACKET_SIZE - BATCH_RESPONSE_HEADER_SIZE) / BATCH_ENTRY_SIZE;
+
+    public static final int STATS_REQUEST_SIZE = 6;
+    public static final int STATS_RESPONSE_SIZE = 30;
+
+    private QueryProtocol() {
+    }
+
+    /**
+     * 解码后的请求，附带发送方地址用于回复
+     */
+    public static class Request {
+        public final byte type;
+        public final int requestId;
+        public final int studentId;
+        public final int chunkHint;
+        public final int[] studentIds; // 仅批量请求
+        public InetAddress address;
+        public int port;
+
+        public Request(byte type, int requestId, int studentId, int chunkHint) {
+            this(type, requestId, studentId, chunkHint, null);
+        }
+
+        public Request(byte type, int requestId, int studentId, int chunkHint, int[] studentIds) {
+            this.type = type;
+            this.requestId = requestId;
+            this.studentId = studentId;
+            this.chunkHint = chunkHint;
+            this.studentIds = studentIds;
+        }
+    }
+
+    /**
+     * 解码后的响应
+     */
+    public static class Response {
+        public final int requestId;
+        public final byte status;
+        public final StudentRecord record;
+
+        public Response(int requestId, byte status, StudentRecord record) {
+            this.requestId = requestId;
+            this.status = status;
+            this.record = record;
+        }
+    }
+
+    /**
+     * 解码后的批量响应分片
+     * records[i] 为 studentIds[i] 的记录，未命中时为null
+     */
+    public static class BatchResponse {
+        public final int requestId;
+        public final int fragmentIndex;
+        public final int fragmentCount;
+        public final int[] studentIds;
+        public final StudentRecord[] records;
+
+        public BatchResponse(int requestId, int fragmentIndex, int fragmentCount,
+                             int[] studentIds, StudentRecord[] records) {
+            this.requestId = requestId;
+            this.fragmentIndex = fragmentIndex;
+            this.fragmentCount = fragmentCount;
+            this.studentIds = studentIds;
+            this.records = records;
+        }
+    }
+
+    /**
+     * 解码后的节点状态，Client据此选择数据块的存放节点
+     */
+    public static class NodeStats {
+        public final int requestId;
+        public final long freeBytes;
+        public final long storedBytes;
+        public final int pendingChunks;
+        public final int activeQueries;
+
+        public NodeStats(int requestId, long freeBytes, long storedBytes, int pendingChunks, int activeQueries) {
+            this.requestId = requestId;
+            this.freeBytes = freeBytes;
+            this.storedBytes = storedBytes;
+            this.pendingChunks = pendingChunks;
+            this.activeQueries = activeQueries;
+        }
+    }
+
+    public static byte[] encodeQuery(int requestId, int studentId, int chunkHint) {
+        ByteBuffer buffer = ByteBuffer.allocate(QUERY_SIZE);
+        buffer.put(VERSION);
+        buffer.put(TYPE_QUERY);
+        buffer.putInt(requestId);
+        buffer.putInt(studentId);
+        buffer.putInt(chunkHint);
+        return buffer.array();
+    }
+
+    /**
+     * 编码批量请求，学号数不能超过 MAX_BATCH_IDS
+     */
+    public static byte[] encodeBatchQuery(int requestId, int[] studentIds, int from, int to) {
+        int count = to - from;
+        if (count > MAX_BATCH_IDS) {
+            throw new IllegalArgumentException("批量查询学号数超过上限: " + count);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(BATCH_HEADER_SIZE + count * 4);
+        buffer.put(VERSION);
+        buffer.put(TYPE_BATCH_QUERY);
+        buffer.putInt(requestId);
+        buffer.putShort((short) count);
+        for (int i = from; i < to; i++) {
+            buffer.putInt(studentIds[i]);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * 解码请求(单条或批量)
+     * @return 请求，版本不符或格式错误时返回null
+     */
+    public static Request decodeRequest(byte[] data, int length) {
+        if (length < 2 || data[0] != VERSION) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, 2, length - 2);
+        if (data[1] == TYPE_QUERY && length >= QUERY_SIZE) {
+            return new Request(TYPE_QUERY, buffer.getInt(), buffer.getInt(), buffer.getInt());
+        }
+        if (data[1] == TYPE_BATCH_QUERY && length >= BATCH_HEADER_SIZE) {
+            int requestId = buffer.getInt();
+            int count = buffer.getShort() & 0xFFFF;
+            if (buffer.remaining() < count * 4) {
+                return null;
+            }
+            int[] studentIds = new int[count];
+            for (int i = 0; i < count; i++) {
+                studentIds[i] = buffer.getInt();
+            }
+            return new Request(TYPE_BATCH_QUERY, requestId, 0, -1, studentIds);
+        }
+        if (data[1] == TYPE_STATS && length >= STATS_REQUEST_SIZE) {
+            return new Request(TYPE_STATS, buffer.getInt(), 0, -1);
+        }
+        return null;
+    }
+
+    public static byte[] encodeStatsRequest(int requestId) {
+        ByteBuffer buffer = ByteBuffer.allocate(STATS_REQUEST_SIZE);
+        buffer.put(VERSION);
+        buffer.put(TYPE_STATS);
+        buffer.putInt(requestId);
+        return buffer.array();
+    }
+
+    public static byte[] encodeStats(NodeStats stats) {
+        ByteBuffer buffer = ByteBuffer.allocate(STATS_RESPONSE_SIZE);
+        buffer.put(VERSION);
+        buffer.put(TYPE_STATS_RESPONSE);
+        buffer.putInt(stats.requestId);
+        buffer.putLong(stats.freeBytes);
+        buffer.putLong(stats.storedBytes);
+        buffer.putInt(stats.pendingChunks);
+        buffer.putInt(stats.activeQueries);
+        return buffer.array();
+    }
+
+    /**
+     * 解码状态响应
+     * @return 节点状态，版本不符或格式错误时返回null
+     */
+    public static NodeStats decodeStats(byte[] data, int length) {
+        if (length < STATS_RESPONSE_SIZE || data[0] != VERSION || data[1] != TYPE_STATS_RESPONSE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, 2, length - 2);
+        return new NodeStats(buffer.getInt(), buffer.getLong(), buffer.getLong(), buffer.getInt(), buffer.getInt());
+    }
+
+    /**
+     * 编码响应，record仅在状态为OK时写入
+     */
+    public static byte[] encodeResponse(int requestId, byte status, StudentRecord record) {
+        boolean hasRecord = status == STATUS_OK && record != null;
+        ByteBuffer buffer = ByteBuffer.allocate(RESPONSE_HEADER_SIZE + (hasRecord ? StudentRecord.SIZE : 0));
+        buffer.put(VERSION);
+        buffer.put(TYPE_RESPONSE);
+        buffer.putInt(requestId);
+        buffer.put(status);
+        if (hasRecord) {
+            record.writeTo(buffer);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * 解码响应
+     * @return 响应，版本不符或格式错误时返回null
+     */
+    public static Response decodeResponse(byte[] data, int length) {
+        if (length < RESPONSE_HEADER_SIZE || data[0] != VERSION || data[1] != TYPE_RESPONSE) {
+            return null;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(data, 2, length - 2);
+            int requestId = buffer.getInt();
+            byte status = buffer.get();
+            StudentRecord record = null;
+            if (status == STATUS_OK) {
+                record = StudentRecord.readFrom(buffer, buffer.position());
+            }
+            return new Response(requestId, status, record);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 编码批量响应，按每个报文最多 ENTRIES_PER_RESPONSE 个条目拆分
+     * records[i] 为 studentIds[i] 的记录，未命中时为null
+     */
+    public static List<byte[]> encodeBatchResponse(int requestId, int[] studentIds, StudentRecord[] records) {
+        int fragmentCount = Math.max(1, (studentIds.length + ENTRIES_PER_RESPONSE - 1) / ENTRIES_PER_RESPONSE);
+        List<byte[]> fragments = new ArrayList<>(fragmentCount);
+
+        for (int fragment = 0; fragment < fragmentCount; fragment++) {
+            int from = fragment * ENTRIES_PER_RESPONSE;
+            int to = Math.min(from + ENTRIES_PER_RESPONSE, studentIds.length);
+            ByteBuffer buffer = ByteBuffer.allocate(BATCH_RESPONSE_HEADER_SIZE + (to - from) * BATCH_ENTRY_SIZE);
+            buffer.put(VERSION);
+            buffer.put(TYPE_BATCH_RESPONSE);
+            buffer.putInt(requestId);
+            buffer.putShort((short) fragment);
+            buffer.putShort((short) fragmentCount);
+            buffer.putShort((short) (to - from));
+            for (int i = from; i < to; i++) {
+                if (records[i] != null) {
+                    buffer.put(STATUS_OK);
+                    records[i].writeTo(buffer);
+                } else {
+                    buffer.put(STATUS_NOT_FOUND);
+                    buffer.putInt(studentIds[i]);
+                    buffer.position(buffer.position() + StudentRecord.SIZE - 4);
+                }
+            }
+            fragments.add(buffer.array());
+        }
+        return fragments;
+    }
+
+    /**
+     * 解码批量响应分片
+     * @return 分片，版本不符或格式错误时返回null
+     */
+    public static BatchResponse decodeBatchResponse(byte[] data, int length) {
+        if (length < BATCH_RESPONSE_HEADER_SIZE || data[0] != VERSION || data[1] != TYPE_BATCH_RESPONSE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+        int requestId = buffer.getInt(2);
+        int fragmentIndex = buffer.getShort(6) & 0xFFFF;
+        int fragmentCount = buffer.getShort(8) & 0xFFFF;
+        int count = buffer.getShort(10) & 0xFFFF;
+        if (length < BATCH_RESPONSE_HEADER_SIZE + count * BATCH_ENTRY_SIZE) {
+            return null;
+        }
+
+        int[] studentIds = new int[count];
+        StudentRecord[] records = new StudentRecord[count];
+        for (int i = 0; i < count; i++) {
+            int offset = BATCH_RESPONSE_HEADER_SIZE + i * BATCH_ENTRY_SIZE;
+            studentIds[i] = buffer.getInt(offset + 1);
+            if (data[offset] == STATUS_OK) {
+                records[i] = StudentRecord.readFrom(buffer, offset + 1);
+            }
+        }
+        return new BatchResponse(requestId, fragmentIndex, fragmentCount, studentIds, records);
+    }
+}
@@ -0,0 +1,170 @@
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 发送速率控制(令牌桶 + AIMD)
+ * 每发送一个报文先从令牌桶取出等量字节，令牌按当前速率补充，桶容量限制了一次突发的大小，
+ * 避免瞬间灌满接收方的socket缓冲区。速率按接收方的确认反馈逐轮调整：
+ * 一轮内丢失(确认位图中的空洞)的比例不超过容忍值时线性增加，超过时成倍降低；超时立即降低。
+ * 容忍少量丢包是为了不把链路上的随机丢包当成拥塞，接收方被灌满时丢包比例会远高于容忍值。
+ *
+ * 环境变量: PACING=off 关闭；SEND_RATE_MBPS 初始速率；SEND_RATE_MAX_MBPS 速率上限
+ */
+public class RatePacer {
+    private static final double MB = 1024 * 1024;
+    private static final double MIN_RATE = 1 * MB;              // 字节/秒
+    private static final long EPOCH_NS = 20_000_000L;           // 每轮调整的时长
+    private static final double INCREASE_PER_EPOCH = 8 * MB;    // 无明显丢包时每轮增加的速率
+    private static final double LOSS_TOLERANCE = 0.05;          // 一轮内可容忍的丢失比例
+    private static final double LOSS_DECREASE = 0.7;
+    private static final double TIMEOUT_DECREASE = 0.5;
+    private static final int BURST_BYTES = 64 * 1024;           // 令牌桶容量
+
+    private final double maxRate;
+    private double rate;
+    private double tokens;
+    private long lastRefill;
+    private long epochStart;
+    private long epochAcked;
+    private long epochLost;
+    private long lastTimeoutDecrease;
+
+    private long sentBytes;
+    private long retransmittedBytes;
+    private long ackedBytes;
+    private long lossEvents;
+
+    public RatePacer(double initialRate, double maxRate) {
+        this.maxRate = maxRate;
+        this.rate = Math.max(MIN_RATE, Math.min(initialRate, maxRate));
+        this.tokens = BURST_BYTES;
+        this.lastRefill = System.nanoTime();
+        this.epochStart = lastRefill;
+        this.lastTimeoutDecrease = lastRefill - EPOCH_NS;
+    }
+
+    /**
+     * 按环境变量创建
+     * @return 速率控制器，PACING=off 时返回null
+     */
+    public static RatePacer fromEnv() {
+        if ("off".equalsIgnoreCase(System.getenv("PACING"))) {
+            return null;
+        }
+        double initial = Double.parseDouble(System.getenv().getOrDefault("SEND_RATE_MBPS", "64"));
+        double max = Double.parseDouble(System.getenv().getOrDefault("SEND_RATE_MAX_MBPS", "1024"));
+        return new RatePacer(initial * MB, max * MB);
+    }
+
+    /**
+     * 等待令牌后才能发送bytes字节
+     * @param retransmission 是否为重传，用于统计丢包率
+     */
+    public void acquire(int bytes, boolean retransmission) {
+        long waitNanos;
+        synchronized (this) {
+            refill(System.nanoTime());
+            tokens -= bytes;
+            sentBytes += bytes;
+            if (retransmission) {
+                retransmittedBytes += bytes;
+            }
+            // 令牌不足时预先扣除，等待补足欠额的时间
+            waitNanos = tokens >= 0 ? 0 : (long) (-tokens / rate * 1e9);
+        }
+        if (waitNanos > 0) {
+            long deadline = System.nanoTime() + waitNanos;
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(BURST_BYTES, tokens + rate * (now - lastRefill) / 1e9);
+        lastRefill = now;
+    }
+
+    /**
+     * 接收方确认了新的数据
+     */
+    public synchronized void onAck(int bytes) {
+        ackedBytes += bytes;
+        epochAcked += bytes;
+        endEpochIfDue(System.nanoTime());
+    }
+
+    /**
+     * 发现丢包
+     * @param bytes 丢失的字节数
+     * @param timeout 是否为超时，超时说明整个窗口都没有送达，不等本轮结束立即降速
+     */
+    public synchronized void onLoss(int bytes, boolean timeout) {
+        long now = System.nanoTime();
+        lossEvents++;
+        epochLost += bytes;
+        if (timeout && now - lastTimeoutDecrease >= EPOCH_NS) {
+            lastTimeoutDecrease = now;
+            refill(now);
+            rate = Math.max(MIN_RATE, rate * TIMEOUT_DECREASE);
+            startEpoch(now);
+            return;
+        }
+        endEpochIfDue(now);
+    }
+
+    private void endEpochIfDue(long now) {
+        if (now - epochStart < EPOCH_NS) {
+            return;
+        }
+        long total = epochAcked + epochLost;
+        // 长时间空闲(如等待节点落盘)后的第一轮数据太少，不据此调整
+        if (total > 0 && now - epochStart < 4 * EPOCH_NS) {
+            refill(now);
+            if ((double) epochLost / total > LOSS_TOLERANCE) {
+                rate = Math.max(MIN_RATE, rate * LOSS_DECREASE);
+            } else {
+                rate = Math.min(maxRate, rate + INCREASE_PER_EPOCH);
+            }
+        }
+        startEpoch(now);
+    }
+
+    private void startEpoch(long now) {
+        epochStart = now;
+        epochAcked = 0;
+        epochLost = 0;
+    }
+
+    /**
+     * 当前速率(字节/秒)
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    public synchronized long getSentBytes() {
+        return sentBytes;
+    }
+
+    public synchronized long getAckedBytes() {
+        return ackedBytes;
+    }
+
+    public synchronized long getLossEvents() {
+        return lossEvents;
+    }
+
+    /**
+     * 重传字节数占发送字节数的比例
+     */
+    public synchronized double getLossRatio() {
+        return sentBytes == 0 ? 0 : (double) retransmittedBytes / sentBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("速率 %.1f MB/s，已发送 %.1f MB，重传比例 %.2f%%，丢包事件 %d",
+                             rate / MB, sentBytes / MB, getLossRatio() * 100, lossEvents);
+    }
+}
@@ -0,0 +1,59 @@
+import java.nio.ByteBuffer;
+
+/**
+ * 在原始记录数据上直接查找学号
+ * 按20字节步长就地读取学号，不解析、不复制记录，只返回命中记录的位置。
+ */
+public class RecordSearch {
+    
+    private RecordSearch() {
+    }
+    
+    /**
+     * 线性扫描
+     * @param buffer 数据所在缓冲区(大端序)
+     * @param offset 第一条记录在缓冲区中的绝对位置
+     * @param recordCount 记录数
+     * @return 命中记录的绝对位置，未找到返回-1
+     */
+    public static int linearScan(ByteBuffer buffer, int offset, int recordCount, int studentId) {
+        int end = offset + recordCount * StudentRecord.SIZE;
+        for (int pos = offset; pos < end; pos += StudentRecord.SIZE) {
+            if (buffer.getInt(pos) == studentId) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * 二分查找，要求记录按学号升序排列
+     * @return 命中记录的绝对位置，未找到返回-1
+     */
+    public static int binarySearch(ByteBuffer buffer, int offset, int recordCount, int studentId) {
+        int low = 0;
+        int high = recordCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int pos = offset + mid * StudentRecord.SIZE;
+            int midId = buffer.getInt(pos);
+            if (midId < studentId) {
+                low = mid + 1;
+            } else if (midId > studentId) {
+                high = mid - 1;
+            } else {
+                return pos;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * 按块是否有序选择二分查找或线性扫描
+     */
+    public static int search(ByteBuffer buffer, int offset, int recordCount, int studentId, boolean sorted) {
+        return sorted
+            ? binarySearch(buffer, offset, recordCount, studentId)
+            : linearScan(buffer, offset, recordCount, studentId);
+    }
+}
@@ -0,0 +1,151 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 集群学号路由表: 学号区间 → (块ID, 主节点, 备份节点)
+ * 由Client分发数据时生成并发布，QueryClient加载后把查询直接发给持有该学号的节点。
+ *
+ * 文件格式为文本，每行一个条目:
+ * <块ID>,<最小学号>,<最大学号>,<主节点ID>,<备份节点ID>
+ */
+public class RoutingTable {
+
+    public static class Route {
+        public final int chunkId;
+        public final int minStudentId;
+        public final int maxStudentId;
+        public final int primaryNodeId;
+        public final int backupNodeId;
+
+        public Route(int chunkId, int minStudentId, int maxStudentId, int primaryNodeId, int backupNodeId) {
+            this.chunkId = chunkId;
+            this.minStudentId = minStudentId;
+            this.maxStudentId = maxStudentId;
+            this.primaryNodeId = primaryNodeId;
+            this.backupNodeId = backupNodeId;
+        }
+
+        @Override
+        public String toString() {
+            return chunkId + "," + minStudentId + "," + maxStudentId + "," + primaryNodeId + "," + backupNodeId;
+        }
+
+        public static Route fromString(String line) {
+            String[] parts = line.split(",");
+            if (parts.length != 5) {
+                return null;
+            }
+            return new Route(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+                             Integer.parseInt(parts[2]), Integer.parseInt(parts[3]),
+                             Integer.parseInt(parts[4]));
+        }
+    }
+
+    private final List<Route> routes = new ArrayList<>();
+
+    // 按最小学号排序后的查找结构，修改后延迟重建
+    private Route[] sorted;
+    private int[] maxIdPrefix; // maxIdPrefix[i] = sorted[0..i] 中最大的 maxStudentId
+
+    /**
+     * 默认的路由表文件，可通过环境变量ROUTING_TABLE指定
+     */
+    public static File defaultFile() {
+        return new File(System.getenv().getOrDefault("ROUTING_TABLE", "routing-table.csv"));
+    }
+
+    /**
+     * 添加一个数据块的路由，空块不会被加入
+     */
+    public synchronized void add(int chunkId, ZoneMap zoneMap, int primaryNodeId, int backupNodeId) {
+        if (zoneMap.recordCount == 0) {
+            return;
+        }
+        routes.add(new Route(chunkId, zoneMap.minStudentId, zoneMap.maxStudentId, primaryNodeId, backupNodeId));
+        sorted = null;
+    }
+
+    public synchronized int size() {
+        return routes.size();
+    }
+
+    /**
+     * 查找学号区间覆盖目标学号的所有路由
+     */
+    public synchronized List<Route> lookup(int studentId) {
+        if (sorted == null) {
+            buildLookup();
+        }
+
+        // 最后一个 minStudentId <= studentId 的位置
+        int low = 0;
+        int high = sorted.length - 1;
+        int last = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid].minStudentId <= studentId) {
+                last = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        List<Route> matches = new ArrayList<>();
+        for (int i = last; i >= 0 && maxIdPrefix[i] >= studentId; i--) {
+            if (sorted[i].maxStudentId >= studentId) {
+                matches.add(sorted[i]);
+            }
+        }
+        return matches;
+    }
+
+    private void buildLookup() {
+        sorted = routes.toArray(new Route[0]);
+        Arrays.sort(sorted, Comparator.comparingInt((Route route) -> route.minStudentId));
+        maxIdPrefix = new int[sorted.length];
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < sorted.length; i++) {
+            max = Math.max(max, sorted[i].maxStudentId);
+            maxIdPrefix[i] = max;
+        }
+    }
+
+    /**
+     * 写入路由表文件(先写临时文件再替换，读取方不会看到写了一半的表)
+     */
+    public synchronized void save(File file) throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try (PrintWriter pw = new PrintWriter(new FileWriter(tmpFile))) {
+            for (Route route : routes) {
+                pw.println(route.toString());
+            }
+        }
+        if (!tmpFile.renameTo(file)) {
+            throw new IOException("无法写入路由表: " + file.getPath());
+        }
+    }
+
+    /**
+     * 加载路由表文件
+     */
+    public static RoutingTable load(File file) throws IOException {
+        RoutingTable table = new RoutingTable();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    Route route = Route.fromString(line);
+                    if (route != null) {
+                        table.routes.add(route);
+                    }
+                }
+            }
+        }
+        return table;
+    }
+}
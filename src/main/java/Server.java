@@ -1,9 +1,10 @@
+import java.io.IOException;
 import java.util.List;
 
 public class Server {
     private int port;
     private NetReceiver receiver;
-    public Server(int listeningPort) {
+    public Server(int listeningPort) throws IOException {
         this.port = listeningPort;
         this.receiver = new NetReceiver(port);
     }
@@ -1,34 +1,156 @@
 import java.io.*;
 import java.net.*;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 存储节点类
  * 负责存储数据块并维护索引
+ * 数据端口、查询端口和TCP导入端口都注册在同一个事件循环(EventLoop)上，由一个线程非阻塞地收发；
+ * 数据块落盘交给固定大小的工作线程池，查询和导入连接在虚拟线程中执行。节点的平台线程数与负载无关。
  */
 public class StorageNode {
     private int nodeId;
     private int port;
     private String studentId;
-    private DatagramSocket socket;
+    private DatagramChannel dataChannel;
+    private int queryPort;
+    private DatagramChannel queryChannel;
+    private int ingestPort;
+    private ServerSocketChannel ingestServer;
+    private DatagramChannel membershipChannel;  // 向Manager发送注册和心跳
+    private ControlBatcher controlBatcher;      // 心跳和负载报告合并成一个数据报
+    private volatile InetSocketAddress managerAddress;  // 解析成功后缓存，事件循环发送心跳时不再解析
+    private EventLoop eventLoop;
+    private ExecutorService storeExecutor;      // 数据块落盘的工作线程池
+    private int storeWorkers;
+    private ExecutorService replicaExecutor;    // 链式复制时把数据块转发给备份节点
+    private Map<String, NetSender> replicaSenders = new ConcurrentHashMap<>();
+    private FileChannel dataReader;             // TCP链式转发时从数据文件直接发出
+    private ExecutorService queryExecutor;
+    private int maxConcurrentQueries;
+    private int maxQueuedQueries;
+    private Semaphore queryConcurrency;   // 同时执行查找的数量
+    private Semaphore queryAdmission;     // 执行中 + 排队中的数量，超出即拒绝
+    private AtomicLong queriesServed = new AtomicLong();
+    private AtomicLong queriesShed = new AtomicLong();
+    private AtomicLong corruptReads = new AtomicLong();
+    private AtomicLong duplicateChunks = new AtomicLong();  // 已存储而未再追加的重发块
+    // 正在查重、追加和建索引的块ID；同一块ID的另一次存储等这次完成后再查重，不会各追加一份
+    private final ConcurrentHashMap<Integer, CountDownLatch> storingChunks = new ConcurrentHashMap<>();
+    // 查询端口发送缓冲区满时未发出的响应，等通道可写时由事件循环线程按顺序补发
+    private static final int MAX_DEFERRED_REPLIES = 4096;
+    private SelectionKey queryKey;
+    private final ConcurrentLinkedQueue<QueryReply> deferredReplies = new ConcurrentLinkedQueue<>();
+    private AtomicInteger deferredReplyCount = new AtomicInteger();
+    private AtomicLong repliesDeferred = new AtomicLong();
+    private AtomicLong repliesDropped = new AtomicLong();
+    private double readVerifySample;      // 读取数据块时校验的比例
+    private final Set<Long> verifiedChunks = ConcurrentHashMap.newKeySet();  // 读取时已校验过的未压缩块的位置
+    private AtomicInteger pendingIngestAcks = new AtomicInteger();  // TCP导入已读取、尚未确认的块
+    private long diskQuota;               // 数据文件可占用的字节数上限，0为不限(只受磁盘剩余空间限制)
     private File datFile;
     private File idxFile;
-    private boolean running = true;
+    private AppendLog dataLog;
+    private MappedDataFile mappedData;
+    private ChunkIndex chunkIndex;
+    private ChunkDirectory chunkDirectory;
+    // 最近解压的压缩块，键为块在数据文件中的指针；查询在多个虚拟线程中执行，访问时加锁
+    private static final int DECODED_CACHE_CHUNKS =
+        Integer.parseInt(System.getenv().getOrDefault("DECODED_CACHE_CHUNKS", "32"));
+    private final Map<Long, ByteBuffer> decodedChunks = new LinkedHashMap<Long, ByteBuffer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, ByteBuffer> eldest) {
+            return size() > DECODED_CACHE_CHUNKS;
+        }
+    };
+    private volatile boolean running = true;
+    
+    // 每次就绪事件最多处理的报文数，避免一个端口的突发流量饿死其它端口
+    private static final int MAX_PACKETS_PER_EVENT = 256;
+    private final ByteBuffer dataBuffer = ByteBuffer.allocate(ChunkTransfer.MAX_PACKET_SIZE);
+    private final ByteBuffer queryBuffer = ByteBuffer.allocate(QueryProtocol.MAX_PACKET_SIZE);
+    
+    // 以下传输状态只由事件循环线程访问
+    // 正在重组的数据块传输，键为 发送方地址#传输ID
+    private static final int MAX_PENDING_TRANSFERS = 64;
+    private static final long TRANSFER_IDLE_TIMEOUT_NS = 30_000_000_000L;
+    private Map<String, ChunkTransfer.Reassembly> reassemblies = new HashMap<>();
+    // 已重组完成、正在工作线程中落盘的传输，其间收到的重复分片直接忽略
+    private Set<String> storingTransfers = new HashSet<>();
+    // 最近完成的传输及其结果，发送方没收到COMPLETE而重传时直接再回复一次
+    private Map<String, Byte> completedTransfers = new LinkedHashMap<String, Byte>(16, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Byte> eldest) {
+            return size() > 1024;
+        }
+    };
     
     // 索引项结构
     public static class IndexEntry {
         public int chunkId;
         public long pointer;
         public int size;
+        public int flags;
+        // 块内学号区间摘要
+        public int minStudentId;
+        public int maxStudentId;
+        public int recordCount;
+        // 块数据的CRC32C，标志含 ChunkIndex.FLAG_CHECKSUM 时有效
+        public int checksum;
         
         public IndexEntry(int chunkId, long pointer, int size) {
+            this(chunkId, pointer, size, 0, ZoneMap.UNKNOWN);
+        }
+        
+        public IndexEntry(int chunkId, long pointer, int size, int flags, ZoneMap zoneMap) {
+            this(chunkId, pointer, size, flags, zoneMap, 0);
+        }
+        
+        public IndexEntry(int chunkId, long pointer, int size, int flags, ZoneMap zoneMap, int checksum) {
+            this(chunkId, pointer, size, flags,
+                 zoneMap.minStudentId, zoneMap.maxStudentId, zoneMap.recordCount, checksum);
+        }
+        
+        public IndexEntry(int chunkId, long pointer, int size, int flags,
+                          int minStudentId, int maxStudentId, int recordCount, int checksum) {
             this.chunkId = chunkId;
             this.pointer = pointer;
             this.size = size;
+            this.flags = flags;
+            this.minStudentId = minStudentId;
+            this.maxStudentId = maxStudentId;
+            this.recordCount = recordCount;
+            this.checksum = checksum;
+        }
+        
+        public ZoneMap zoneMap() {
+            return new ZoneMap(minStudentId, maxStudentId, recordCount);
         }
         
         @Override
@@ -49,301 +171,1042 @@ public class StorageNode {
         }
     }
     
-    public StorageNode(int nodeId, int port, String studentId) throws SocketException {
+    public StorageNode(int nodeId, int port, String studentId) throws IOException {
         this.nodeId = nodeId;
         this.port = port;
         this.studentId = studentId;
-        this.socket = new DatagramSocket(port);
+        this.dataChannel = DatagramChannel.open();
+        this.dataChannel.setOption(StandardSocketOptions.SO_RCVBUF, 4 * 1024 * 1024); // 容纳整个发送窗口的分片
+        this.dataChannel.bind(new InetSocketAddress(port));
+        
+        // 查询服务端口默认为数据端口 + 1000，与QueryClient的默认值一致
+        this.queryPort = Integer.parseInt(System.getenv().getOrDefault("QUERY_PORT", String.valueOf(port + 1000)));
+        this.queryChannel = DatagramChannel.open();
+        // 非阻塞发送时缓冲区满会丢弃报文，批量响应一次要发出多个分片
+        this.queryChannel.setOption(StandardSocketOptions.SO_SNDBUF, 1024 * 1024);
+        this.queryChannel.bind(new InetSocketAddress(queryPort));
+        this.maxConcurrentQueries = Integer.parseInt(System.getenv().getOrDefault("QUERY_MAX_CONCURRENCY", "64"));
+        this.maxQueuedQueries = Integer.parseInt(System.getenv().getOrDefault("QUERY_MAX_QUEUED", "1024"));
+        this.queryConcurrency = new Semaphore(maxConcurrentQueries);
+        this.queryAdmission = new Semaphore(maxConcurrentQueries + maxQueuedQueries);
+        this.queryExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        // 查询读取数据块时按此比例校验CRC32C，1为每次都校验，0为不校验
+        this.readVerifySample = Double.parseDouble(System.getenv().getOrDefault("READ_VERIFY_SAMPLE", "1"));
+        // 多个节点共用一块磁盘时用配额区分各自的容量，Client按剩余空间选择存放节点
+        this.diskQuota = Long.parseLong(System.getenv().getOrDefault("DISK_QUOTA_MB", "0")) * 1024 * 1024;
+        
+        // TCP批量导入端口默认为数据端口 + 2000
+        this.ingestPort = Integer.parseInt(System.getenv().getOrDefault("INGEST_PORT", String.valueOf(port + 2000)));
+        this.ingestServer = ServerSocketChannel.open();
+        this.ingestServer.bind(new InetSocketAddress(ingestPort));
+        
+        this.membershipChannel = DatagramChannel.open();
+        this.controlBatcher = ControlBatcher.fromEnv(
+            (data, target) -> membershipChannel.send(ByteBuffer.wrap(data), target));
+        this.storeWorkers = Integer.parseInt(System.getenv().getOrDefault("STORE_WORKERS", "2"));
+        this.storeExecutor = Executors.newFixedThreadPool(storeWorkers);
+        this.replicaExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        this.eventLoop = new EventLoop("StorageNode-" + nodeId);
         
         // 创建数据和索引文件
         this.datFile = new File(studentId + "-hw3-" + nodeId + ".dat");
         this.idxFile = new File(studentId + "-hw3-" + nodeId + ".idx");
+        
+        // 数据文件使用组提交的追加日志，索引文件为内存映射的二进制格式
+        AppendLog.FsyncPolicy fsyncPolicy = AppendLog.FsyncPolicy.parse(System.getenv("FSYNC_POLICY"));
+        long fsyncInterval = Long.parseLong(System.getenv().getOrDefault("FSYNC_INTERVAL_MS", "1000"));
+        this.dataLog = new AppendLog(datFile, fsyncPolicy, fsyncInterval);
+        this.mappedData = new MappedDataFile(datFile);
+        this.dataReader = FileChannel.open(datFile.toPath(), StandardOpenOption.READ);
+        this.chunkIndex = new ChunkIndex(idxFile);
+        backfillIndex();
+        this.chunkDirectory = ChunkDirectory.load(chunkIndex);
     }
     
     /**
      * 注册到Manager
      */
     private void registerWithManager() {
-        String managerHost = System.getenv("MANAGER_HOST");
-        if (managerHost == null) {
-            managerHost = "manager";  // 默认值
-        }
-        
         try {
-            DatagramSocket regSocket = new DatagramSocket();
             String joinMessage = "JOIN:" + nodeId + ":" + port;
-            byte[] data = joinMessage.getBytes();
-            
-            InetAddress managerAddress = InetAddress.getByName(managerHost);
-            DatagramPacket packet = new DatagramPacket(data, data.length, managerAddress, 9000);
-            
-            regSocket.send(packet);
+            sendToManager(joinMessage);
             System.out.println("已向Manager注册: " + joinMessage);
-            regSocket.close();
         } catch (Exception e) {
             System.err.println("注册到Manager失败: " + e.getMessage());
         }
     }
     
     /**
-     * 发送心跳消息到Manager
+     * 事件循环的定时任务，每5秒发送一次心跳
+     * Manager地址已解析时直接在事件循环上发送(只放入ControlBatcher的队列)，
+     * 否则交给虚拟线程解析后发送；不经过落盘线程池，导入繁忙时心跳不会排在落盘任务之后
      */
-    private void sendHeartbeat() {
-        String managerHost = System.getenv("MANAGER_HOST");
-        if (managerHost == null) {
-            managerHost = "manager";
+    private void heartbeatTick() {
+        if (managerAddress != null) {
+            sendHeartbeat();
+        } else {
+            replicaExecutor.execute(this::sendHeartbeat);
         }
-        
+    }
+    
+    /**
+     * 发送心跳消息和负载报告到Manager，两条消息在同一个数据报中
+     */
+    private void sendHeartbeat() {
         try {
-            DatagramSocket heartbeatSocket = new DatagramSocket();
-            String heartbeatMessage = "HEARTBEAT:" + nodeId + ":localhost:" + port;
-            byte[] data = heartbeatMessage.getBytes();
-            
-            InetAddress managerAddress = InetAddress.getByName(managerHost);
-            DatagramPacket packet = new DatagramPacket(data, data.length, managerAddress, 9000);
-            
-            heartbeatSocket.send(packet);
-            heartbeatSocket.close();
+            sendToManager("HEARTBEAT:" + nodeId + ":localhost:" + port);
+            sendToManager("LOAD:" + nodeId + ":chunks=" + chunkIndex.size() + ":bytes=" + dataLog.size() +
+                          ":free=" + freeBytes() +
+                          ":queries=" + (maxConcurrentQueries - queryConcurrency.availablePermits()) +
+                          ":shed=" + queriesShed.get());
         } catch (Exception e) {
             System.err.println("发送心跳失败: " + e.getMessage());
         }
     }
     
-    /**
-     * 启动心跳线程
-     */
-    private void startHeartbeat() {
-        Thread heartbeatThread = new Thread(() -> {
-            while (running) {
-                try {
-                    Thread.sleep(5000); // 每5秒发送一次心跳
-                    sendHeartbeat();
-                } catch (InterruptedException e) {
-                    break;
-                } catch (Exception e) {
-                    System.err.println("心跳线程异常: " + e.getMessage());
-                }
+    private void sendToManager(String message) throws IOException {
+        InetSocketAddress address = managerAddress;
+        if (address == null) {
+            String managerHost = System.getenv().getOrDefault("MANAGER_HOST", "manager");
+            address = new InetSocketAddress(managerHost, 9000);
+            if (address.isUnresolved()) {
+                throw new UnknownHostException(managerHost);
             }
-        });
-        heartbeatThread.setDaemon(true);
-        heartbeatThread.start();
+            managerAddress = address;
+        }
+        controlBatcher.send(message, address);
     }
     
     /**
      * 启动存储节点
      */
-    public void start() {
+    public void start() throws IOException {
         System.out.println("存储节点 " + nodeId + " 启动在端口 " + port);
         
         // 注册到Manager
         registerWithManager();
         
-        // 启动心跳线程
-        startHeartbeat();
-        
-        // 启动数据接收线程
-        Thread dataThread = new Thread(this::handleDataPackets);
-        dataThread.start();
-        
-        // 启动查询处理线程
-        Thread queryThread = new Thread(this::handleQueries);
-        queryThread.start();
+        // 三个端口和定时任务都由同一个事件循环处理
+        eventLoop.register(dataChannel, SelectionKey.OP_READ, key -> receiveDataPackets());
+        queryKey = eventLoop.register(queryChannel, SelectionKey.OP_READ, key -> {
+            if (key.isWritable()) {
+                flushDeferredReplies();
+            }
+            if (key.isReadable()) {
+                receiveQueries();
+            }
+        });
+        eventLoop.register(ingestServer, SelectionKey.OP_ACCEPT, key -> acceptIngestConnections());
+        eventLoop.schedule(this::heartbeatTick, 5000);
+        eventLoop.schedule(this::expireIdleTransfers, 5000);
+        eventLoop.start();
+        System.out.println("查询服务启动在端口 " + queryPort + "，最大并发: " + maxConcurrentQueries +
+                           "，最大排队: " + maxQueuedQueries);
+        System.out.println("TCP导入服务启动在端口 " + ingestPort + "，落盘线程数: " + storeWorkers);
         
         // 主线程处理用户输入
         handleUserInput();
     }
     
     /**
-     * 处理数据包接收
+     * 读取数据端口上已到达的报文，直到没有更多报文或达到单次上限
      */
-    private void handleDataPackets() {
-        byte[] buffer = new byte[1024 * 1024 + 1024]; // 1MB + 头部空间
+    private void receiveDataPackets() throws IOException {
+        for (int i = 0; i < MAX_PACKETS_PER_EVENT; i++) {
+            dataBuffer.clear();
+            SocketAddress sender = dataChannel.receive(dataBuffer);
+            if (sender == null) {
+                return;
+            }
+            processDataPacket(dataBuffer.array(), dataBuffer.position(), sender);
+        }
+    }
+    
+    /**
+     * 接受TCP导入连接，每条连接在独立的虚拟线程中处理
+     */
+    private void acceptIngestConnections() throws IOException {
+        SocketChannel connection;
+        while ((connection = ingestServer.accept()) != null) {
+            SocketChannel accepted = connection; // 接受的连接默认为阻塞模式
+            Thread.ofVirtual().start(() -> handleIngestConnection(accepted));
+        }
+    }
+    
+    /**
+     * 导入连接上等待回复的确认，replica不为null时需等备份节点确认后再回复
+     */
+    private static class PendingAck {
+        static final PendingAck END = new PendingAck(0, (byte) 0, null);
+        final int chunkId;
+        final byte status;
+        final ChunkStream replica;
         
-        while (running) {
+        PendingAck(int chunkId, byte status, ChunkStream replica) {
+            this.chunkId = chunkId;
+            this.status = status;
+            this.replica = replica;
+        }
+    }
+    
+    /**
+     * 处理一条导入连接：逐帧把数据块直接从socket写入数据文件，每块存储后回复确认
+     * 链式复制的块存储后立即转发给备份节点，确认由单独的线程按帧顺序等待备份节点确认后回复，
+     * 读取线程不等待，继续接收后续的帧
+     */
+    private void handleIngestConnection(SocketChannel connection) {
+        ByteBuffer header = ByteBuffer.allocate(ChunkStream.FRAME_HEADER_SIZE);
+        ByteBuffer chainLength = ByteBuffer.allocate(1);
+        BlockingQueue<PendingAck> pending = new ArrayBlockingQueue<>(ChunkStream.MAX_IN_FLIGHT * 2);
+        Map<String, ChunkStream> replicas = new HashMap<>();
+        Thread acker = Thread.ofVirtual().start(() -> sendIngestAcks(connection, pending));
+        try {
+            while (running) {
+                header.clear();
+                if (!ChunkStream.readFully(connection, header)) {
+                    break;
+                }
+                int chunkId = header.getInt(0);
+                byte flags = header.get(4);
+                boolean isPrimary = (flags & ChunkStream.FLAG_PRIMARY) != 0;
+                ChunkCodec codec = ChunkCodec.fromId((flags & 0xFF) >>> ChunkStream.CODEC_SHIFT);
+                int length = header.getInt(5);
+                int checksum = header.getInt(9);
+                if (length < 0 || length > MappedDataFile.MAX_CHUNK_SIZE || codec == null) {
+                    System.err.println("导入帧长度或压缩编码无效: " + length + "，断开连接");
+                    break;
+                }
+                String chainTarget = null;
+                if ((flags & ChunkStream.FLAG_CHAIN) != 0) {
+                    chainLength.clear();
+                    ByteBuffer target = null;
+                    if (ChunkStream.readFully(connection, chainLength)) {
+                        target = ByteBuffer.allocate(chainLength.get(0) & 0xFF);
+                    }
+                    if (target == null || !ChunkStream.readFully(connection, target)) {
+                        throw new EOFException("连接在帧中间关闭");
+                    }
+                    chainTarget = new String(target.array(), StandardCharsets.UTF_8);
+                }
+                
+                // 数据经transferFrom直接从socket写入数据文件；读到一半失败时连接已不可用，直接断开
+                // 已存储的块(续传时重发)只从连接上读走，按已存储确认，链式转发从已有的位置发出
+                // 查重、追加和建索引期间占用块ID，同一块同时经UDP或另一个连接到达时不会各存一份
+                long pointer;
+                byte status = ChunkStream.STATUS_STORED;
+                claimChunk(chunkId);
+                try {
+                    pointer = findDuplicate(chunkId, length, codec, checksum);
+                    if (pointer >= 0) {
+                        skipFully(connection, length);
+                        duplicateChunks.incrementAndGet();
+                        System.out.println("数据块 " + chunkId + " 已存储，跳过重发的数据(TCP)");
+                    } else {
+                        pointer = dataLog.appendFrom(connection, length);
+                        try {
+                            // 校验和区间摘要在只映射本块的视图上计算，未压缩的块不复制到堆内存；校验失败的块不建索引
+                            ByteBuffer stored = mappedData.mapChunk(pointer, length);
+                            ChunkChecksum.verify(stored, checksum, "数据块 " + chunkId);
+                            ZoneMap zoneMap = ZoneMap.of(codec == ChunkCodec.NONE ? stored : ByteBuffer.wrap(codec.decode(stored)));
+                            indexChunk(chunkId, pointer, length, zoneMap, codec, checksum);
+                            System.out.println("收到数据块 " + chunkId + " (" + (isPrimary ? "主" : "备份") +
+                                               "，TCP)，大小: " + length + " 字节" + describeCodec(codec));
+                        } catch (ChunkChecksum.MismatchException e) {
+                            status = ChunkStream.STATUS_CORRUPT;
+                            System.err.println("拒绝数据块 " + chunkId + ": " + e.getMessage());
+                        } catch (IOException e) {
+                            status = ChunkStream.STATUS_FAILED;
+                            System.err.println("存储数据块 " + chunkId + " 失败: " + e.getMessage());
+                        }
+                    }
+                } finally {
+                    releaseChunk(chunkId);
+                }
+                
+                ChunkStream replica = null;
+                if (status == ChunkStream.STATUS_STORED && chainTarget != null) {
+                    replica = forwardOverTcp(replicas, chainTarget, chunkId, pointer, length, codec, checksum);
+                    if (replica == null) {
+                        status = ChunkStream.STATUS_REPLICA_FAILED;
+                    }
+                }
+                // 先计数再放入队列，确认线程减计数时计数已包含本块，状态响应不会看到偏小或负的值
+                pendingIngestAcks.incrementAndGet();
+                boolean queued = false;
+                try {
+                    queued = enqueueAck(pending, new PendingAck(chunkId, status, replica), acker);
+                } finally {
+                    if (!queued) {
+                        pendingIngestAcks.decrementAndGet();
+                    }
+                }
+                if (!queued) {
+                    break; // 确认线程已因连接失败退出
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("处理导入连接失败: " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // 已读取的帧的确认全部回复后再关闭
             try {
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                socket.receive(packet);
+                enqueueAck(pending, PendingAck.END, acker);
+                acker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (ChunkStream replica : replicas.values()) {
+                closeQuietly(replica);
+            }
+            closeQuietly(connection);
+        }
+    }
+    
+    /**
+     * 读走并丢弃连接上的length字节
+     */
+    private static void skipFully(SocketChannel connection, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(length, 64 * 1024));
+        while (length > 0) {
+            buffer.clear().limit(Math.min(length, buffer.capacity()));
+            if (!ChunkStream.readFully(connection, buffer)) {
+                throw new EOFException("连接在帧中间关闭");
+            }
+            length -= buffer.limit();
+        }
+    }
+    
+    /**
+     * 查找已存储的相同数据块(块ID、大小、编码和校验和都一致)
+     * 不同文件的块ID都从0开始，与该块ID的每一份比较，不只是最先存储的那份。
+     * 客户端续传或重发已存储的块时不再追加，数据文件中不会出现重复的记录
+     * @return 已存储的块在数据文件中的位置，没有时返回-1
+     */
+    private long findDuplicate(int chunkId, int size, ChunkCodec codec, int checksum) {
+        ChunkDirectory.Snapshot directory = chunkDirectory.snapshot();
+        for (int slot = directory.find(chunkId); slot >= 0; slot = directory.next(slot)) {
+            if (directory.chunkSize(slot) == size
+                && ChunkIndex.codecOf(directory.flags(slot)) == codec
+                && (directory.flags(slot) & ChunkIndex.FLAG_CHECKSUM) != 0
+                && directory.checksum(slot) == checksum) {
+                return directory.pointer(slot);
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * 把刚写入数据文件的块直接从文件转发给链式复制目标，不等待确认
+     * @return 转发所用的连接，失败时返回null
+     */
+    private ChunkStream forwardOverTcp(Map<String, ChunkStream> replicas, String target,
+                                       int chunkId, long pointer, int length, ChunkCodec codec, int checksum) {
+        ChunkStream replica = replicas.get(target);
+        try {
+            if (replica == null) {
+                InetSocketAddress address = parseChainTarget(target);
+                replica = new ChunkStream(address.getHostString(), address.getPort());
+                replicas.put(target, replica);
+            }
+            replica.writeFrame(chunkId, dataReader, pointer, length, false, null, codec, checksum);
+            return replica;
+        } catch (IOException e) {
+            System.err.println("转发数据块 " + chunkId + " 到 " + target + " 失败: " + e.getMessage());
+            if (replica != null) {
+                replicas.remove(target);
+                closeQuietly(replica);
+            }
+            return null;
+        }
+    }
+    
+    /**
+     * 按帧顺序回复导入确认，链式复制的块先等待备份节点的确认
+     */
+    private void sendIngestAcks(SocketChannel connection, BlockingQueue<PendingAck> pending) {
+        try {
+            while (true) {
+                PendingAck item = pending.take();
+                if (item == PendingAck.END) {
+                    return;
+                }
+                pendingIngestAcks.decrementAndGet();
+                byte status = item.status;
+                if (item.replica != null) {
+                    try {
+                        if (item.replica.readAck() != ChunkStream.STATUS_STORED) {
+                            status = ChunkStream.STATUS_REPLICA_FAILED;
+                        }
+                    } catch (IOException e) {
+                        status = ChunkStream.STATUS_REPLICA_FAILED;
+                        System.err.println("备份节点确认数据块 " + item.chunkId + " 失败: " + e.getMessage());
+                        closeQuietly(item.replica); // 读取线程下次转发时重新连接
+                    }
+                }
                 
-                processDataPacket(packet);
-            } catch (IOException e) {
-                if (running) {
-                    e.printStackTrace();
+                ByteBuffer ack = ByteBuffer.wrap(ChunkStream.encodeAck(item.chunkId, status));
+                while (ack.hasRemaining()) {
+                    connection.write(ack);
                 }
             }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("回复导入确认失败: " + e.getMessage());
+            }
+            closeQuietly(connection); // 让读取线程退出
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * 放入待回复的确认，确认线程已退出时返回false
+     */
+    private static boolean enqueueAck(BlockingQueue<PendingAck> pending, PendingAck item, Thread acker)
+            throws InterruptedException {
+        while (!pending.offer(item, 100, TimeUnit.MILLISECONDS)) {
+            if (!acker.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            System.err.println("关闭连接失败: " + e.getMessage());
         }
     }
     
     /**
      * 处理查询请求
+     * 事件循环只负责解码和准入控制，每个查询交给独立的虚拟线程处理，
+     * 慢的磁盘读取不会阻塞其它查询；在途查询过多时直接回复BUSY，客户端会改问副本。
      */
-    private void handleQueries() {
-        // 暂时禁用查询功能，避免端口冲突
-        System.out.println("查询功能已暂时禁用");
-        /*
-        // 启动查询服务器在另一个端口
-        try (DatagramSocket querySocket = new DatagramSocket(port + 1000)) {
-            byte[] buffer = new byte[1024];
+    private void receiveQueries() throws IOException {
+        for (int i = 0; i < MAX_PACKETS_PER_EVENT; i++) {
+            queryBuffer.clear();
+            SocketAddress sender = queryChannel.receive(queryBuffer);
+            if (sender == null) {
+                return;
+            }
             
-            while (running) {
-                try {
-                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                    querySocket.receive(packet);
-                    
-                    processQuery(packet, querySocket);
-                } catch (IOException e) {
-                    if (running) {
-                        e.printStackTrace();
-                    }
-                }
+            QueryProtocol.Request request = QueryProtocol.decodeRequest(queryBuffer.array(), queryBuffer.position());
+            if (request == null) {
+                continue; // 版本不符或格式错误的请求直接丢弃
             }
-        } catch (SocketException e) {
-            e.printStackTrace();
+            InetSocketAddress address = (InetSocketAddress) sender;
+            request.address = address.getAddress();
+            request.port = address.getPort();
+            
+            if (request.type == QueryProtocol.TYPE_STATS) {
+                // 状态请求不经准入控制，节点繁忙时Client正需要知道
+                sendQueryReply(QueryProtocol.encodeStats(currentStats(request.requestId)), sender);
+                continue;
+            }
+            if (!queryAdmission.tryAcquire()) {
+                queriesShed.incrementAndGet();
+                sendQueryResponse(request, QueryProtocol.STATUS_BUSY, null);
+                continue;
+            }
+            queryExecutor.execute(() -> serveQuery(request));
+        }
+    }
+    
+    /**
+     * 当前的容量和负载，在事件循环线程中调用(读取重组中和落盘中的传输数)
+     * 待落盘的块包括UDP正在重组和落盘的传输、TCP导入已读取但未确认的块
+     */
+    private QueryProtocol.NodeStats currentStats(int requestId) {
+        int pendingChunks = reassemblies.size() + storingTransfers.size() + pendingIngestAcks.get();
+        int activeQueries = maxConcurrentQueries - queryConcurrency.availablePermits();
+        return new QueryProtocol.NodeStats(requestId, freeBytes(), dataLog.size(), pendingChunks, activeQueries);
+    }
+    
+    /**
+     * 还能写入的字节数：数据文件所在磁盘的剩余空间，设置了配额时不超过配额的剩余部分
+     */
+    private long freeBytes() {
+        long free = datFile.getAbsoluteFile().getParentFile().getUsableSpace();
+        if (diskQuota > 0) {
+            free = Math.min(free, Math.max(0, diskQuota - dataLog.size()));
+        }
+        return free;
+    }
+    
+    /**
+     * 在处理线程中执行查询，同时执行磁盘查找的数量受并发上限约束
+     */
+    private void serveQuery(QueryProtocol.Request request) {
+        try {
+            queryConcurrency.acquire();
+            try {
+                processQuery(request);
+                queriesServed.incrementAndGet();
+            } finally {
+                queryConcurrency.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            if (running) {
+                System.err.println("处理查询失败: " + e.getMessage());
+            }
+        } finally {
+            queryAdmission.release();
         }
-        */
     }
     
     /**
      * 处理数据包
+     * 数据块以分片形式到达，其间按需回复确认；重组完成后交给工作线程落盘，
+     * 落盘完成后回到事件循环记录结果并回复COMPLETE
      */
-    private void processDataPacket(DatagramPacket packet) throws IOException {
-        byte[] data = packet.getData();
-        int length = packet.getLength();
+    private void processDataPacket(byte[] data, int length, SocketAddress sender) throws IOException {
+        ChunkTransfer.Fragment fragment = ChunkTransfer.decodeFragment(data, length);
+        if (fragment == null) {
+            return; // 不是数据块分片
+        }
         
-        if (length < 9) { // 至少需要 chunkId(4) + isPrimary(1) + dataLength(4)
+        String key = sender + "#" + fragment.transferId;
+        Byte completed = completedTransfers.get(key);
+        if (completed != null) {
+            replyToSender(sender, ChunkTransfer.encodeComplete(fragment.transferId, completed));
             return;
         }
+        if (storingTransfers.contains(key)) {
+            return; // 正在落盘，完成后会回复COMPLETE
+        }
         
-        ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
-        buffer.order(ByteOrder.BIG_ENDIAN);
-        
-        int chunkId = buffer.getInt();
-        boolean isPrimary = buffer.get() == 1;
-        int dataLength = buffer.getInt();
-        
-        byte[] chunkData = new byte[dataLength];
-        buffer.get(chunkData);
+        ChunkTransfer.Reassembly reassembly = reassemblies.get(key);
+        if (reassembly == null) {
+            expireIdleTransfers();
+            if (reassemblies.size() >= MAX_PENDING_TRANSFERS) {
+                return; // 丢弃，发送方超时后会重传
+            }
+            reassembly = new ChunkTransfer.Reassembly(fragment);
+            reassemblies.put(key, reassembly);
+        }
         
-        // 存储数据块
-        storeChunk(chunkId, chunkData, isPrimary);
+        boolean ackNow = reassembly.add(fragment);
+        if (!reassembly.isComplete()) {
+            if (ackNow) {
+                replyToSender(sender, reassembly.encodeAck());
+            }
+            return;
+        }
         
-        System.out.println("收到数据块 " + chunkId + " (" + 
-                          (isPrimary ? "主" : "备份") + ")，大小: " + dataLength + " 字节");
+        reassemblies.remove(key);
+        storingTransfers.add(key);
+        ChunkTransfer.Reassembly done = reassembly;
+        storeExecutor.execute(() -> {
+            try {
+                if (storeChunk(done.chunkId, done.data(), done.isPrimary, done.codec, done.checksum)) {
+                    System.out.println("收到数据块 " + done.chunkId + " (" + (done.isPrimary ? "主" : "备份") +
+                                       ")，大小: " + done.data().length + " 字节" + describeCodec(done.codec));
+                } else {
+                    System.out.println("数据块 " + done.chunkId + " 已存储，跳过重发的数据");
+                }
+            } catch (ChunkChecksum.MismatchException e) {
+                System.err.println("拒绝数据块 " + done.chunkId + ": " + e.getMessage());
+                eventLoop.execute(() -> finishTransfer(key, sender, done.transferId, ChunkTransfer.STATUS_CORRUPT));
+                return;
+            } catch (IOException e) {
+                System.err.println("存储数据块 " + done.chunkId + " 失败: " + e.getMessage());
+                eventLoop.execute(() -> finishTransfer(key, sender, done.transferId, ChunkTransfer.STATUS_FAILED));
+                return;
+            }
+            if (done.chainTarget == null) {
+                eventLoop.execute(() -> finishTransfer(key, sender, done.transferId, ChunkTransfer.STATUS_STORED));
+                return;
+            }
+            // 链式复制：转发给备份节点，备份节点存储完成后才回复COMPLETE；转发等待网络，不占用落盘线程
+            replicaExecutor.execute(() -> {
+                byte status = forwardToReplica(done.chainTarget, done.chunkId, done.data(), done.codec, done.checksum);
+                eventLoop.execute(() -> finishTransfer(key, sender, done.transferId, status));
+            });
+        });
+    }
+    
+    /**
+     * 通过UDP把数据块转发给链式复制目标，作为备份存储
+     * @return STATUS_STORED，或转发失败时 STATUS_REPLICA_FAILED
+     */
+    private byte forwardToReplica(String target, int chunkId, byte[] chunkData, ChunkCodec codec, int checksum) {
+        try {
+            NetSender sender = replicaSenders.get(target);
+            if (sender == null) {
+                InetSocketAddress address = parseChainTarget(target);
+                sender = new NetSender(address.getHostString(), address.getPort());
+                NetSender existing = replicaSenders.putIfAbsent(target, sender);
+                if (existing != null) {
+                    sender.close();
+                    sender = existing;
+                }
+            }
+            sender.sendDataChunk(chunkId, ByteBuffer.wrap(chunkData), false, null, codec, checksum);
+            System.out.println("数据块 " + chunkId + " 已转发到备份节点 " + target);
+            return ChunkTransfer.STATUS_STORED;
+        } catch (IOException e) {
+            System.err.println("转发数据块 " + chunkId + " 到 " + target + " 失败: " + e.getMessage());
+            return ChunkTransfer.STATUS_REPLICA_FAILED;
+        }
+    }
+    
+    /**
+     * 解析链式复制目标 "主机:端口"，不解析主机名
+     */
+    private static InetSocketAddress parseChainTarget(String target) throws IOException {
+        int colon = target.lastIndexOf(':');
+        try {
+            return InetSocketAddress.createUnresolved(target.substring(0, colon),
+                                                      Integer.parseInt(target.substring(colon + 1)));
+        } catch (RuntimeException e) {
+            throw new IOException("链式复制目标格式错误: " + target);
+        }
+    }
+    
+    /**
+     * 记录落盘结果并回复COMPLETE，在事件循环线程中执行
+     */
+    private void finishTransfer(String key, SocketAddress sender, int transferId, byte status) {
+        storingTransfers.remove(key);
+        completedTransfers.put(key, status);
+        try {
+            replyToSender(sender, ChunkTransfer.encodeComplete(transferId, status));
+        } catch (IOException e) {
+            System.err.println("回复传输结果失败: " + e.getMessage());
+        }
+    }
+    
+    private void replyToSender(SocketAddress sender, byte[] reply) throws IOException {
+        dataChannel.send(ByteBuffer.wrap(reply), sender);
+    }
+    
+    /**
+     * 丢弃长时间没有新分片的重组状态(发送方已放弃)
+     */
+    private void expireIdleTransfers() {
+        long now = System.nanoTime();
+        reassemblies.values().removeIf(reassembly -> now - reassembly.lastActivity() > TRANSFER_IDLE_TIMEOUT_NS);
     }
     
     /**
      * 存储数据块
+     * 先按发送方给出的校验和校验，不符时不存储。
+     * 压缩的块按原样存储，区间摘要在解压后的记录上计算，解压失败说明数据损坏，不存储。
+     * 数据先经追加日志组提交，提交完成后再写索引，保证索引不会指向未写入的数据
+     * @return 是否写入，已存储相同的块时返回false(按已存储确认)
+     * @throws ChunkChecksum.MismatchException 数据与校验和不符
+     */
+    private boolean storeChunk(int chunkId, byte[] chunkData, boolean isPrimary, ChunkCodec codec, int checksum)
+            throws IOException {
+        ChunkChecksum.verify(ByteBuffer.wrap(chunkData), checksum, "数据块 " + chunkId);
+        ZoneMap zoneMap = ZoneMap.of(codec == ChunkCodec.NONE ? chunkData : codec.decode(ByteBuffer.wrap(chunkData)));
+        claimChunk(chunkId);
+        try {
+            if (findDuplicate(chunkId, chunkData.length, codec, checksum) >= 0) {
+                duplicateChunks.incrementAndGet();
+                return false;
+            }
+            long pointer = dataLog.append(chunkData);
+            indexChunk(chunkId, pointer, chunkData.length, zoneMap, codec, checksum);
+            return true;
+        } finally {
+            releaseChunk(chunkId);
+        }
+    }
+
+    /**
+     * 占用块ID：同一块ID已在存储时等它完成(建好索引或失败)，之后的查重能看到它存下的那份
      */
-    private synchronized void storeChunk(int chunkId, byte[] chunkData, boolean isPrimary) throws IOException {
-        // 获取当前.dat文件大小作为指针
-        long pointer = datFile.length();
+    private void claimChunk(int chunkId) throws InterruptedIOException {
+        CountDownLatch claim = new CountDownLatch(1);
+        CountDownLatch holder;
+        while ((holder = storingChunks.putIfAbsent(chunkId, claim)) != null) {
+            try {
+                holder.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("等待数据块 " + chunkId + " 存储完成时被中断");
+            }
+        }
+    }
+
+    private void releaseChunk(int chunkId) {
+        storingChunks.remove(chunkId).countDown();
+    }
+    
+    private static String describeCodec(ChunkCodec codec) {
+        return codec == ChunkCodec.NONE ? "" : "，" + codec.name() + "压缩";
+    }
+    
+    /**
+     * 数据写入后再写索引，保证索引不会指向未写入的数据
+     * @param size 存储的(压缩后的)字节数
+     */
+    private void indexChunk(int chunkId, long pointer, int size, ZoneMap zoneMap, ChunkCodec codec, int checksum)
+            throws IOException {
+        int flags = (zoneMap.sorted ? ChunkIndex.FLAG_SORTED : 0) | ChunkIndex.codecFlags(codec)
+                    | ChunkIndex.FLAG_CHECKSUM;
+        IndexEntry entry = new IndexEntry(chunkId, pointer, size, flags, zoneMap, checksum);
+        synchronized (chunkDirectory) {
+            chunkIndex.append(entry);
+            chunkDirectory.add(entry);
+        }
+        if (dataLog.getFsyncPolicy() == AppendLog.FsyncPolicy.EVERY_BATCH) {
+            chunkIndex.force();
+        }
+    }
+    
+    /**
+     * 为旧索引升级而来的条目补算缺少的zone map和校验和
+     * 校验和按当前数据文件的内容计算，只能发现此后发生的损坏
+     */
+    private void backfillIndex() throws IOException {
+        int backfilled = 0;
+        for (int i = 0; i < chunkIndex.size(); i++) {
+            IndexEntry entry = chunkIndex.get(i);
+            boolean hasChecksum = (entry.flags & ChunkIndex.FLAG_CHECKSUM) != 0;
+            if ((entry.recordCount >= 0 && hasChecksum) || entry.pointer + entry.size > dataLog.size()) {
+                continue;
+            }
+            
+            int flags = entry.flags;
+            ZoneMap zoneMap = entry.zoneMap();
+            if (entry.recordCount < 0) {
+                zoneMap = ZoneMap.of(chunkRecords(entry.pointer, entry.size, flags, entry.checksum));
+                flags = zoneMap.sorted ? flags | ChunkIndex.FLAG_SORTED : flags;
+            }
+            int checksum = entry.checksum;
+            if (!hasChecksum) {
+                checksum = ChunkChecksum.of(mappedData.chunk(entry.pointer, entry.size));
+                flags |= ChunkIndex.FLAG_CHECKSUM;
+            }
+            chunkIndex.set(i, new IndexEntry(entry.chunkId, entry.pointer, entry.size, flags, zoneMap, checksum));
+            backfilled++;
+        }
+        if (backfilled > 0) {
+            chunkIndex.force();
+            System.out.println("已为 " + backfilled + " 个索引条目补算学号区间或校验和");
+        }
+    }
+    
+    /**
+     * 处理查询请求
+     */
+    private void processQuery(QueryProtocol.Request request) throws IOException {
+        if (request.type == QueryProtocol.TYPE_BATCH_QUERY) {
+            processBatchQuery(request);
+            return;
+        }
         
-        // 追加数据到.dat文件
-        try (FileOutputStream fos = new FileOutputStream(datFile, true)) {
-            fos.write(chunkData);
+        StudentRecord record;
+        try {
+            // 块ID提示来自客户端的路由表
+            record = findStudentRecord(request.studentId, request.chunkHint);
+        } catch (ChunkChecksum.MismatchException e) {
+            // 客户端收到CORRUPT后改问副本
+            sendQueryResponse(request, QueryProtocol.STATUS_CORRUPT, null);
+            throw e;
+        } catch (IOException e) {
+            sendQueryResponse(request, QueryProtocol.STATUS_ERROR, null);
+            throw e;
         }
         
-        // 更新索引文件
-        IndexEntry entry = new IndexEntry(chunkId, pointer, chunkData.length);
-        try (FileWriter fw = new FileWriter(idxFile, true);
-             PrintWriter pw = new PrintWriter(fw)) {
-            pw.println(entry.toString());
+        byte status = record != null ? QueryProtocol.STATUS_OK : QueryProtocol.STATUS_NOT_FOUND;
+        sendQueryResponse(request, status, record);
+    }
+    
+    /**
+     * 处理批量查询请求，命中和未命中的结果一起返回，超过一个报文时拆分发送
+     */
+    private void processBatchQuery(QueryProtocol.Request request) throws IOException {
+        StudentRecord[] records;
+        try {
+            records = findStudentRecords(request.studentIds);
+        } catch (ChunkChecksum.MismatchException e) {
+            sendQueryResponse(request, QueryProtocol.STATUS_CORRUPT, null);
+            throw e;
+        } catch (IOException e) {
+            sendQueryResponse(request, QueryProtocol.STATUS_ERROR, null);
+            throw e;
+        }
+        
+        InetSocketAddress target = new InetSocketAddress(request.address, request.port);
+        for (byte[] fragment : QueryProtocol.encodeBatchResponse(request.requestId, request.studentIds, records)) {
+            sendQueryReply(fragment, target);
         }
     }
     
+    private void sendQueryResponse(QueryProtocol.Request request, byte status, StudentRecord record)
+            throws IOException {
+        byte[] responseData = QueryProtocol.encodeResponse(request.requestId, status, record);
+        sendQueryReply(responseData, new InetSocketAddress(request.address, request.port));
+    }
+    
     /**
-     * 处理查询请求
+     * 等待补发的查询响应
      */
-    private void processQuery(DatagramPacket queryPacket, DatagramSocket querySocket) throws IOException {
-        String query = new String(queryPacket.getData(), 0, queryPacket.getLength());
+    private static class QueryReply {
+        final ByteBuffer data;
+        final SocketAddress target;
         
-        if (query.startsWith("QUERY:")) {
-            int targetStudentId = Integer.parseInt(query.substring(6));
-            StudentRecord record = findStudentRecord(targetStudentId);
-            
-            String response = record != null ? record.toString() : "NOT_FOUND";
-            byte[] responseData = response.getBytes();
-            
-            DatagramPacket responsePacket = new DatagramPacket(
-                responseData, responseData.length,
-                queryPacket.getAddress(), queryPacket.getPort()
-            );
-            querySocket.send(responsePacket);
+        QueryReply(byte[] data, SocketAddress target) {
+            this.data = ByteBuffer.wrap(data);
+            this.target = target;
+        }
+    }
+    
+    /**
+     * 从查询端口发送响应，可在任意线程调用
+     * 非阻塞通道的发送缓冲区满时send返回0、报文未发出，此时(以及已有待补发的响应时，保持顺序)
+     * 放入补发队列并关注可写事件；队列已满时丢弃并计数，客户端超时后改问副本
+     */
+    private void sendQueryReply(byte[] data, SocketAddress target) throws IOException {
+        if (deferredReplyCount.get() == 0 && queryChannel.send(ByteBuffer.wrap(data), target) > 0) {
+            return;
+        }
+        if (deferredReplyCount.incrementAndGet() > MAX_DEFERRED_REPLIES) {
+            deferredReplyCount.decrementAndGet();
+            repliesDropped.incrementAndGet();
+            return;
+        }
+        deferredReplies.add(new QueryReply(data, target));
+        repliesDeferred.incrementAndGet();
+        eventLoop.execute(() -> {
+            if (queryKey.isValid()) {
+                queryKey.interestOps(queryKey.interestOps() | SelectionKey.OP_WRITE);
+            }
+        });
+    }
+    
+    /**
+     * 通道可写时按顺序补发，在事件循环线程中执行；全部发出后不再关注可写事件
+     */
+    private void flushDeferredReplies() throws IOException {
+        QueryReply reply;
+        while ((reply = deferredReplies.peek()) != null) {
+            if (queryChannel.send(reply.data, reply.target) == 0) {
+                return; // 仍然没有空间，等下一次可写事件
+            }
+            deferredReplies.poll();
+            deferredReplyCount.decrementAndGet();
         }
+        queryKey.interestOps(SelectionKey.OP_READ);
+        // 清除关注后才加入的响应由加入方重新设置可写关注
     }
     
     /**
      * 查找学生记录
+     * 直接在内存映射的数据文件上按记录步长比对学号，只为命中的记录创建对象；
+     * 入库时标记为有序的块使用二分查找。
+     * 校验失败的块跳过，其它块中也找不到时抛出校验异常，而不是答复未找到
      */
-    private StudentRecord findStudentRecord(int targetStudentId) throws IOException {
-        List<IndexEntry> indices = loadIndices();
+    private StudentRecord findStudentRecord(int targetStudentId, int chunkHint) throws IOException {
+        ChunkDirectory.Snapshot directory = chunkDirectory.snapshot();
+        ChunkChecksum.MismatchException corrupt = null;
         
-        try (RandomAccessFile raf = new RandomAccessFile(datFile, "r")) {
-            for (IndexEntry entry : indices) {
-                raf.seek(entry.pointer);
-                byte[] chunkData = new byte[entry.size];
-                raf.readFully(chunkData);
-                
-                // 解析学生记录
-                List<StudentRecord> records = parseChunkData(chunkData);
-                for (StudentRecord record : records) {
-                    if (record.studentId == targetStudentId) {
-                        return record;
-                    }
+        // 先查路由表指明的块
+        int hintSlot = chunkHint >= 0 ? directory.find(chunkHint) : -1;
+        if (hintSlot >= 0) {
+            try {
+                StudentRecord record = findInSlot(directory, hintSlot, targetStudentId);
+                if (record != null) {
+                    return record;
                 }
+            } catch (ChunkChecksum.MismatchException e) {
+                corrupt = e;
             }
         }
         
+        for (int slot = 0; slot < directory.size(); slot++) {
+            if (slot == hintSlot) {
+                continue;
+            }
+            try {
+                StudentRecord record = findInSlot(directory, slot, targetStudentId);
+                if (record != null) {
+                    return record;
+                }
+            } catch (ChunkChecksum.MismatchException e) {
+                corrupt = e;
+            }
+        }
+        
+        if (corrupt != null) {
+            throw corrupt;
+        }
         return null;
     }
     
     /**
-     * 解析数据块为学生记录
+     * 批量查找学生记录
+     * 学号去重排序后对所有块只扫描一遍，每个块只处理落在其学号区间内、尚未命中的学号：
+     * 有序块对这些学号逐个二分查找，无序块逐条读取记录学号并在学号数组中二分定位。
+     * 校验失败的块跳过，其区间内的学号最终仍未找到时抛出校验异常
+     * @return 与studentIds一一对应的记录，未找到的为null
      */
-    private List<StudentRecord> parseChunkData(byte[] chunkData) {
-        List<StudentRecord> records = new ArrayList<>();
-        ByteBuffer buffer = ByteBuffer.wrap(chunkData);
-        buffer.order(ByteOrder.BIG_ENDIAN);
+    private StudentRecord[] findStudentRecords(int[] studentIds) throws IOException {
+        int[] targets = Arrays.stream(studentIds).sorted().distinct().toArray();
+        StudentRecord[] found = new StudentRecord[targets.length];
+        boolean[] inCorruptChunk = null;
+        ChunkChecksum.MismatchException corrupt = null;
+        int remaining = targets.length;
         
-        int recordSize = 20; // int(4) + 4*float(4)
-        int recordCount = chunkData.length / recordSize;
+        ChunkDirectory.Snapshot directory = chunkDirectory.snapshot();
+        for (int slot = 0; slot < directory.size() && remaining > 0; slot++) {
+            int from = firstAbove(targets, (long) directory.minStudentId(slot) - 1);
+            int to = firstAbove(targets, directory.maxStudentId(slot));
+            int pending = 0;
+            for (int i = from; i < to; i++) {
+                if (found[i] == null) {
+                    pending++;
+                }
+            }
+            if (pending == 0) {
+                continue;
+            }
+            
+            ByteBuffer window;
+            try {
+                window = chunkRecords(directory, slot);
+            } catch (ChunkChecksum.MismatchException e) {
+                corrupt = e;
+                inCorruptChunk = inCorruptChunk != null ? inCorruptChunk : new boolean[targets.length];
+                Arrays.fill(inCorruptChunk, from, to, true);
+                continue;
+            }
+            int offset = window.position();
+            int recordCount = window.remaining() / StudentRecord.SIZE;
+            
+            if ((directory.flags(slot) & ChunkIndex.FLAG_SORTED) != 0) {
+                for (int i = from; i < to; i++) {
+                    if (found[i] != null) {
+                        continue;
+                    }
+                    int hit = RecordSearch.binarySearch(window, offset, recordCount, targets[i]);
+                    if (hit >= 0) {
+                        found[i] = StudentRecord.readFrom(window, hit);
+                        remaining--;
+                    }
+                }
+            } else {
+                int end = offset + recordCount * StudentRecord.SIZE;
+                for (int pos = offset; pos < end && pending > 0; pos += StudentRecord.SIZE) {
+                    int i = Arrays.binarySearch(targets, from, to, window.getInt(pos));
+                    if (i >= 0 && found[i] == null) {
+                        found[i] = StudentRecord.readFrom(window, pos);
+                        pending--;
+                        remaining--;
+                    }
+                }
+            }
+        }
         
-        for (int i = 0; i < recordCount; i++) {
-            if (buffer.remaining() >= recordSize) {
-                int studentId = buffer.getInt();
-                float chineseScore = buffer.getFloat();
-                float mathScore = buffer.getFloat();
-                float englishScore = buffer.getFloat();
-                float comprehensiveScore = buffer.getFloat();
-                
-                records.add(new StudentRecord(studentId, chineseScore, mathScore, 
-                                            englishScore, comprehensiveScore));
+        for (int i = 0; inCorruptChunk != null && i < targets.length; i++) {
+            if (inCorruptChunk[i] && found[i] == null) {
+                throw corrupt;
             }
         }
         
+        StudentRecord[] records = new StudentRecord[studentIds.length];
+        for (int i = 0; i < studentIds.length; i++) {
+            records[i] = found[Arrays.binarySearch(targets, studentIds[i])];
+        }
         return records;
     }
     
     /**
-     * 加载索引文件
+     * 有序数组中第一个大于value的位置
      */
-    private List<IndexEntry> loadIndices() throws IOException {
-        List<IndexEntry> indices = new ArrayList<>();
-        
-        if (idxFile.exists()) {
-            try (Scanner scanner = new Scanner(idxFile)) {
-                while (scanner.hasNextLine()) {
-                    String line = scanner.nextLine().trim();
-                    if (!line.isEmpty()) {
-                        IndexEntry entry = IndexEntry.fromString(line);
-                        if (entry != null) {
-                            indices.add(entry);
-                        }
-                    }
-                }
+    private static int firstAbove(int[] sorted, long value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
             }
         }
-        
-        return indices;
+        return low;
+    }
+    
+    private StudentRecord findInSlot(ChunkDirectory.Snapshot directory, int slot, int targetStudentId)
+            throws IOException {
+        // 区间不覆盖目标学号的块直接跳过
+        if (!directory.covers(slot, targetStudentId)) {
+            return null;
+        }
+        boolean sorted = (directory.flags(slot) & ChunkIndex.FLAG_SORTED) != 0;
+        ByteBuffer records = chunkRecords(directory, slot);
+        int hit = RecordSearch.search(records, 0, records.remaining() / StudentRecord.SIZE, targetStudentId, sorted);
+        return hit >= 0 ? StudentRecord.readFrom(records, hit) : null;
+    }
+    
+    private ByteBuffer chunkRecords(ChunkDirectory.Snapshot directory, int slot) throws IOException {
+        return chunkRecords(directory.pointer(slot), directory.chunkSize(slot), directory.flags(slot),
+                            directory.checksum(slot));
+    }
+    
+    /**
+     * 数据块的记录内容，从position到limit
+     * 未压缩的块返回数据文件的映射视图；压缩的块解压后放入最近解压缓存，同一块的后续查询直接复用。
+     * 读取存储的块时按 READ_VERIFY_SAMPLE 的比例校验CRC32C，每块只校验一次:
+     * 未压缩的块校验通过后记入 verifiedChunks，已解压缓存的块在解压时校验过
+     * @throws ChunkChecksum.MismatchException 块数据已损坏
+     */
+    private ByteBuffer chunkRecords(long pointer, int size, int flags, int checksum) throws IOException {
+        ChunkCodec codec = ChunkIndex.codecOf(flags);
+        if (codec == null) {
+            throw new IOException("未知的压缩编码: " + ((flags & ChunkIndex.CODEC_MASK) >>> ChunkIndex.CODEC_SHIFT));
+        }
+        if (codec == ChunkCodec.NONE) {
+            ByteBuffer stored = mappedData.chunk(pointer, size);
+            if (!verifiedChunks.contains(pointer) && verifyRead(stored, flags, checksum, pointer)) {
+                verifiedChunks.add(pointer);
+            }
+            return stored;
+        }
+        synchronized (decodedChunks) {
+            ByteBuffer cached = decodedChunks.get(pointer);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        // 解压不持锁，并发查询同一块时可能重复解压，结果相同
+        ByteBuffer stored = mappedData.chunk(pointer, size);
+        verifyRead(stored, flags, checksum, pointer);
+        ByteBuffer decoded = ByteBuffer.wrap(codec.decode(stored));
+        synchronized (decodedChunks) {
+            decodedChunks.put(pointer, decoded);
+        }
+        return decoded;
+    }
+    
+    /**
+     * @return 本次校验过且校验和一致时为true，未抽中或没有校验和时为false
+     */
+    private boolean verifyRead(ByteBuffer stored, int flags, int checksum, long pointer)
+            throws ChunkChecksum.MismatchException {
+        if ((flags & ChunkIndex.FLAG_CHECKSUM) == 0 || readVerifySample <= 0
+                || (readVerifySample < 1 && ThreadLocalRandom.current().nextDouble() >= readVerifySample)) {
+            return false;
+        }
+        try {
+            ChunkChecksum.verify(stored, checksum, "位于 " + pointer + " 的数据块");
+            return true;
+        } catch (ChunkChecksum.MismatchException e) {
+            corruptReads.incrementAndGet();
+            throw e;
+        }
     }
     
     /**
@@ -426,25 +1289,33 @@ public class StorageNode {
      */
     private void showStatus() {
         System.out.println("节点ID: " + nodeId);
-        System.out.println("端口: " + port);
-        System.out.println("数据文件: " + datFile.getName() + " (大小: " + datFile.length() + " 字节)");
-        System.out.println("索引文件: " + idxFile.getName() + " (存在: " + idxFile.exists() + ")");
+        System.out.println("端口: " + port + "，查询端口: " + queryPort);
+        System.out.println("查询: 已处理 " + queriesServed.get() + "，因过载拒绝 " + queriesShed.get() +
+                           "，读到损坏的数据块 " + corruptReads.get() + " 次");
+        System.out.println("查询响应: 发送缓冲区满时延后补发 " + repliesDeferred.get() + " 个，补发队列满而丢弃 " +
+                           repliesDropped.get() + " 个");
+        System.out.println("导入: 跳过已存储的重发数据块 " + duplicateChunks.get() + " 个");
+        System.out.println("数据文件: " + datFile.getName() + " (大小: " + dataLog.size() + " 字节)");
+        System.out.println("索引文件: " + idxFile.getName() + " (条目数: " + chunkIndex.size() + ")");
+        System.out.println("追加日志: " + dataLog.getStats());
+        System.out.println("控制面: 已发送" + controlBatcher);
     }
     
     /**
      * 显示索引信息
      */
     private void showIndex() {
-        try {
-            List<IndexEntry> indices = loadIndices();
-            System.out.println("索引条目数: " + indices.size());
-            for (IndexEntry entry : indices) {
-                System.out.println("块ID: " + entry.chunkId + 
-                                 ", 指针: " + entry.pointer + 
-                                 ", 大小: " + entry.size);
-            }
-        } catch (IOException e) {
-            System.err.println("读取索引失败: " + e.getMessage());
+        ChunkDirectory.Snapshot directory = chunkDirectory.snapshot();
+        System.out.println("索引条目数: " + directory.size());
+        for (int slot = 0; slot < directory.size(); slot++) {
+            System.out.println("块ID: " + directory.chunkId(slot) + 
+                             ", 指针: " + directory.pointer(slot) + 
+                             ", 大小: " + directory.chunkSize(slot) +
+                             ", 标志: " + directory.flags(slot) +
+                             ", 编码: " + ChunkIndex.codecOf(directory.flags(slot)) +
+                             ", 学号区间: [" + directory.minStudentId(slot) +
+                             ", " + directory.maxStudentId(slot) + "]" +
+                             ", 记录数: " + directory.recordCount(slot));
         }
     }
     
@@ -453,8 +1324,39 @@ public class StorageNode {
      */
     public void shutdown() {
         running = false;
-        if (socket != null) {
-            socket.close();
+        try {
+            eventLoop.close();
+            dataChannel.close();
+            queryChannel.close();
+            ingestServer.close();
+            controlBatcher.close();
+            membershipChannel.close();
+        } catch (IOException e) {
+            System.err.println("关闭网络服务失败: " + e.getMessage());
+        }
+        queryExecutor.shutdownNow();
+        replicaExecutor.shutdownNow();
+        for (NetSender sender : replicaSenders.values()) {
+            sender.close();
+        }
+        // 等待已重组的数据块落盘后再关闭数据文件
+        storeExecutor.shutdown();
+        try {
+            storeExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            dataLog.close();
+        } catch (IOException e) {
+            System.err.println("关闭追加日志失败: " + e.getMessage());
+        }
+        try {
+            mappedData.close();
+            dataReader.close();
+            chunkIndex.close();
+        } catch (IOException e) {
+            System.err.println("关闭索引失败: " + e.getMessage());
         }
         System.out.println("存储节点 " + nodeId + " 已关闭");
     }
@@ -1,4 +1,9 @@
+import java.nio.ByteBuffer;
+
 public class StudentRecord {
+    // 每条记录: int studentId(4) + 4个float成绩(每个4字节)
+    public static final int SIZE = 20;
+    
     public int studentId;
     public float chineseScore;
     public float mathScore;
@@ -14,9 +19,33 @@ public class StudentRecord {
         this.comprehensiveScore = comprehensiveScore;
     }
     
+    /**
+     * 从缓冲区的指定位置读取一条记录(绝对位置读取，不改变缓冲区position)
+     */
+    public static StudentRecord readFrom(ByteBuffer buffer, int offset) {
+        return new StudentRecord(
+            buffer.getInt(offset),
+            buffer.getFloat(offset + 4),
+            buffer.getFloat(offset + 8),
+            buffer.getFloat(offset + 12),
+            buffer.getFloat(offset + 16)
+        );
+    }
+    
+    /**
+     * 以20字节原始格式写入缓冲区的当前位置
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(studentId);
+        buffer.putFloat(chineseScore);
+        buffer.putFloat(mathScore);
+        buffer.putFloat(englishScore);
+        buffer.putFloat(comprehensiveScore);
+    }
+    
     @Override
     public String toString() {
         return String.format("学号: %d, 语文: %.1f, 数学: %.1f, 英语: %.1f, 综合: %.1f",
                 studentId, chineseScore, mathScore, englishScore, comprehensiveScore);
     }
-}
\ No newline at end of file
+}
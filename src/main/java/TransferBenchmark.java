@@ -0,0 +1,91 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 数据块导入吞吐量基准
+ * 生成测试数据文件，分别通过UDP分片传输(NetSender)和TCP导入通道(ChunkStream)发送到一个运行中的存储节点，
+ * 输出两种方式的MB/s。需要先启动存储节点，例如: java StorageNode 1 8001 bench
+ *
+ * 用法: java TransferBenchmark [主机] [数据端口] [MB数]
+ * TCP导入端口按默认规则取数据端口 + 2000
+ */
+public class TransferBenchmark {
+    private static final int CHUNK_SIZE = ChunkSource.DEFAULT_CHUNK_SIZE;
+    private static final int CHUNK_ID_BASE = 1_000_000; // 与正常分发的块ID区分
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8001;
+        int megabytes = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+
+        File datFile = Files.createTempFile("transfer-bench", ".dat").toFile();
+        datFile.deleteOnExit();
+        int chunks = writeData(datFile, megabytes);
+        long totalBytes = (long) chunks * CHUNK_SIZE;
+        System.out.println("数据: " + chunks + " 块 x " + CHUNK_SIZE + " 字节，目标节点 " + host + ":" + port);
+
+        try (FileChannel source = FileChannel.open(datFile.toPath(), StandardOpenOption.READ)) {
+            for (int round = 1; round <= 2; round++) {
+                long start = System.nanoTime();
+                long retransmissions = sendUdp(source, host, port, chunks, round);
+                report("UDP分片传输", round, totalBytes, System.nanoTime() - start,
+                       "，重传分片: " + retransmissions);
+
+                start = System.nanoTime();
+                sendTcp(source, host, port + 2000, chunks, round);
+                report("TCP导入通道", round, totalBytes, System.nanoTime() - start, "");
+            }
+        }
+    }
+
+    private static int writeData(File file, int megabytes) throws IOException {
+        int chunks = megabytes * 1024 * 1024 / CHUNK_SIZE;
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            int studentId = 0;
+            for (int i = 0; i < chunks * (CHUNK_SIZE / StudentRecord.SIZE); i++) {
+                dos.writeInt(studentId++);
+                dos.writeFloat(60f);
+                dos.writeFloat(70f);
+                dos.writeFloat(80f);
+                dos.writeFloat(90f);
+            }
+        }
+        return chunks;
+    }
+
+    private static long sendUdp(FileChannel source, String host, int port, int chunks, int round)
+            throws IOException {
+        NetSender sender = new NetSender(host, port);
+        try {
+            for (int i = 0; i < chunks; i++) {
+                ByteBuffer chunk = source.map(FileChannel.MapMode.READ_ONLY, (long) i * CHUNK_SIZE, CHUNK_SIZE);
+                sender.sendDataChunk(chunkId(round, i), chunk, true);
+            }
+            return sender.getRetransmissions();
+        } finally {
+            sender.close();
+        }
+    }
+
+    private static void sendTcp(FileChannel source, String host, int ingestPort, int chunks, int round)
+            throws IOException {
+        try (ChunkStream stream = new ChunkStream(host, ingestPort)) {
+            for (int i = 0; i < chunks; i++) {
+                stream.sendChunk(chunkId(round, i), source, (long) i * CHUNK_SIZE, CHUNK_SIZE, true);
+            }
+            stream.flush();
+        }
+    }
+
+    private static int chunkId(int round, int index) {
+        return CHUNK_ID_BASE * round + index;
+    }
+
+    private static void report(String name, int round, long bytes, long elapsedNanos, String extra) {
+        System.out.printf("第%d轮 %-10s %.1f MB/s (%.2fs)%s%n",
+            round, name, bytes / 1e6 / (elapsedNanos / 1e9), elapsedNanos / 1e9, extra);
+    }
+}
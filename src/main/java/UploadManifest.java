@@ -0,0 +1,234 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 分发进度清单，用于中断后续传
+ * Client分发时为每个数据块记录计划(位置、长度、校验和、主备节点)和各节点的确认；
+ * 再次分发同一文件时跳过主备节点都已确认的块，只补发缺少的副本，且沿用原来的节点，
+ * 节点据块ID和校验和识别已存储的重复块，不会在数据文件中再追加一份。
+ *
+ * 文件格式为文本，只追加写入:
+ * # upload-manifest,<源文件大小>,<源文件修改时间>,<块大小>
+ * P,<块ID>,<偏移>,<长度>,<原始数据CRC32C(十六进制)>,<主节点ID>,<备份节点ID>
+ * A,<块ID>,<节点ID>
+ * 每行写入后立即交给操作系统(进程退出不丢失)，每隔 SYNC_INTERVAL_MS 强制落盘一次；
+ * 机器崩溃丢失的最后几条确认只会让这些块被重发一次。首行与当前文件不符时清单作废，从头分发。
+ */
+public class UploadManifest implements Closeable {
+    private static final String HEADER = "# upload-manifest";
+    private static final long SYNC_INTERVAL_MS = 200;
+
+    /**
+     * 一个数据块的计划和确认情况
+     */
+    public static class Entry {
+        public final int chunkId;
+        public final long offset;
+        public final int length;
+        public final int checksum;
+        public final int primaryNodeId;
+        public final int backupNodeId;
+        private boolean primaryAcked;
+        private boolean backupAcked;
+
+        public Entry(int chunkId, long offset, int length, int checksum, int primaryNodeId, int backupNodeId) {
+            this.chunkId = chunkId;
+            this.offset = offset;
+            this.length = length;
+            this.checksum = checksum;
+            this.primaryNodeId = primaryNodeId;
+            this.backupNodeId = backupNodeId;
+        }
+
+        public synchronized boolean isAcked(int nodeId) {
+            return nodeId == primaryNodeId ? primaryAcked : nodeId == backupNodeId && backupAcked;
+        }
+
+        public synchronized boolean isComplete() {
+            return primaryAcked && backupAcked;
+        }
+
+        private synchronized void ack(int nodeId) {
+            // 主、备为同一节点时一次确认即完成
+            if (nodeId == primaryNodeId) {
+                primaryAcked = true;
+            }
+            if (nodeId == backupNodeId) {
+                backupAcked = true;
+            }
+        }
+    }
+
+    private final File file;
+    private final Map<Integer, Entry> entries = new HashMap<>();
+    private final FileOutputStream output;
+    private final Writer writer;
+    private long lastSync = System.currentTimeMillis();
+    private boolean closed;
+
+    private UploadManifest(File file, Map<Integer, Entry> entries, boolean append, String header) throws IOException {
+        this.file = file;
+        this.entries.putAll(entries);
+        this.output = new FileOutputStream(file, append);
+        this.writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+        if (!append) {
+            writeLine(header);
+        } else if (!endsWithNewline(file)) {
+            // 上次中断在一行中间，先结束这一行，之后追加的行不会接在它后面
+            writer.write('\n');
+            writer.flush();
+        }
+    }
+
+    private static boolean endsWithNewline(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() == 0) {
+                return true;
+            }
+            raf.seek(raf.length() - 1);
+            return raf.read() == '\n';
+        }
+    }
+
+    /**
+     * 默认的清单文件为源文件名加 .manifest，可通过环境变量UPLOAD_MANIFEST指定
+     */
+    public static File defaultFile(String sourcePath) {
+        return new File(System.getenv().getOrDefault("UPLOAD_MANIFEST", sourcePath + ".manifest"));
+    }
+
+    /**
+     * 打开清单，与源文件(大小、修改时间)和块大小一致时加载已有的进度，否则新建
+     */
+    public static UploadManifest open(File file, File source, int chunkSize) throws IOException {
+        String header = HEADER + "," + source.length() + "," + source.lastModified() + "," + chunkSize;
+        Map<Integer, Entry> entries = new HashMap<>();
+        boolean resume = false;
+        if (file.exists()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), StandardCharsets.UTF_8))) {
+                resume = header.equals(reader.readLine());
+                String line;
+                while (resume && (line = reader.readLine()) != null) {
+                    parseLine(line, entries);
+                }
+            }
+            if (!resume) {
+                System.out.println("分发清单 " + file.getPath() + " 与当前文件不符，从头分发");
+            }
+        }
+        return new UploadManifest(file, entries, resume, header);
+    }
+
+    /**
+     * 解析一行，进程中断时最后一行可能不完整，格式错误的行直接忽略
+     */
+    private static void parseLine(String line, Map<Integer, Entry> entries) {
+        String[] parts = line.split(",");
+        try {
+            if (parts[0].equals("P") && parts.length == 7) {
+                int chunkId = Integer.parseInt(parts[1]);
+                entries.put(chunkId, new Entry(chunkId, Long.parseLong(parts[2]), Integer.parseInt(parts[3]),
+                                               Integer.parseUnsignedInt(parts[4], 16),
+                                               Integer.parseInt(parts[5]), Integer.parseInt(parts[6])));
+            } else if (parts[0].equals("A") && parts.length == 3) {
+                Entry entry = entries.get(Integer.parseInt(parts[1]));
+                if (entry != null) {
+                    entry.ack(Integer.parseInt(parts[2]));
+                }
+            }
+        } catch (NumberFormatException e) {
+            // 不完整的行
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * 已有的计划，没有时返回null
+     */
+    public synchronized Entry get(int chunkId) {
+        return entries.get(chunkId);
+    }
+
+    /**
+     * 已确认的块数(主备节点都已确认)
+     */
+    public synchronized int completedCount() {
+        int completed = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.isComplete()) {
+                completed++;
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * 记录数据块的计划，取代之前的计划(源数据已变化时)
+     */
+    public synchronized Entry plan(int chunkId, long offset, int length, int checksum,
+                                   int primaryNodeId, int backupNodeId) {
+        Entry entry = new Entry(chunkId, offset, length, checksum, primaryNodeId, backupNodeId);
+        entries.put(chunkId, entry);
+        writeLine("P," + chunkId + "," + offset + "," + length + "," + Integer.toHexString(checksum) + "," +
+                  primaryNodeId + "," + backupNodeId);
+        return entry;
+    }
+
+    /**
+     * 记录节点已确认存储数据块
+     */
+    public synchronized void ack(int chunkId, int nodeId) {
+        Entry entry = entries.get(chunkId);
+        if (entry == null || entry.isAcked(nodeId)) {
+            return;
+        }
+        entry.ack(nodeId);
+        writeLine("A," + chunkId + "," + nodeId);
+    }
+
+    private void writeLine(String line) {
+        try {
+            writer.write(line);
+            writer.write('\n');
+            writer.flush();
+            long now = System.currentTimeMillis();
+            if (now - lastSync >= SYNC_INTERVAL_MS) {
+                output.getFD().sync();
+                lastSync = now;
+            }
+        } catch (IOException e) {
+            // 清单写入失败不影响分发，只是中断后无法续传
+            System.err.println("写入分发清单失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 落盘后关闭
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        writer.flush();
+        output.getFD().sync();
+        writer.close();
+    }
+
+    /**
+     * 全部数据块都已确认后删除清单，之后再分发同一文件会从头开始
+     */
+    public void delete() throws IOException {
+        close();
+        if (!file.delete()) {
+            throw new IOException("无法删除分发清单: " + file.getPath());
+        }
+    }
+}
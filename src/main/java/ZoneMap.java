@@ -0,0 +1,64 @@
+import java.nio.ByteBuffer;
+
+/**
+ * 数据块的学号区间摘要(zone map)
+ * 入库时计算块内完整记录的最小/最大学号和记录数，查询时跳过区间不覆盖目标学号的块。
+ * 同一次扫描中还会检查记录是否按学号升序排列，有序的块查询时可以二分查找。
+ */
+public class ZoneMap {
+    // 未知区间(旧索引升级而来)：覆盖所有学号，查询时不能跳过
+    public static final ZoneMap UNKNOWN = new ZoneMap(Integer.MIN_VALUE, Integer.MAX_VALUE, -1);
+
+    public final int minStudentId;
+    public final int maxStudentId;
+    public final int recordCount;
+    public final boolean sorted;
+
+    public ZoneMap(int minStudentId, int maxStudentId, int recordCount) {
+        this(minStudentId, maxStudentId, recordCount, false);
+    }
+
+    public ZoneMap(int minStudentId, int maxStudentId, int recordCount, boolean sorted) {
+        this.minStudentId = minStudentId;
+        this.maxStudentId = maxStudentId;
+        this.recordCount = recordCount;
+        this.sorted = sorted;
+    }
+
+    /**
+     * 计算数据块的区间摘要
+     * @param chunk 块数据，从position到limit为块内容(大端序)
+     */
+    public static ZoneMap of(ByteBuffer chunk) {
+        int base = chunk.position();
+        int recordCount = chunk.remaining() / StudentRecord.SIZE;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        boolean sorted = true;
+
+        for (int i = 0; i < recordCount; i++) {
+            int studentId = chunk.getInt(base + i * StudentRecord.SIZE);
+            if (studentId < max) {
+                sorted = false;
+            }
+            min = Math.min(min, studentId);
+            max = Math.max(max, studentId);
+        }
+        return new ZoneMap(min, max, recordCount, sorted);
+    }
+
+    public static ZoneMap of(byte[] chunkData) {
+        return of(ByteBuffer.wrap(chunkData));
+    }
+
+    public boolean isKnown() {
+        return recordCount >= 0;
+    }
+
+    /**
+     * 区间是否可能包含目标学号
+     */
+    public static boolean covers(int minStudentId, int maxStudentId, int studentId) {
+        return studentId >= minStudentId && studentId <= maxStudentId;
+    }
+}